@@ -0,0 +1,72 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BookSearcher} end to end: request serialization, the HTTP round-trip to a local stub and decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookSearcherBenchmark {
+
+    @Param({"20", "2000"})
+    int authors;
+
+    CannedElasticsearch elasticsearch;
+    ElasticsearchClient client;
+    BookSearcher searcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        elasticsearch = new CannedElasticsearch(authors);
+        client = elasticsearch.client();
+        searcher = new BookSearcher(client);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client._transport().close();
+        elasticsearch.close();
+    }
+
+    @Benchmark
+    public int numberOfBooksPublishedInYear() {
+        return searcher.numberOfBooksPublishedInYear(1999);
+    }
+
+    @Benchmark
+    public YearHistogram numberOfBooksPublishedInYears() {
+        return searcher.numberOfBooksPublishedInYears(1800, 2010);
+    }
+
+    @Benchmark
+    public List<BookSearcher.MostPublished> mostPublishedAuthorsInYears() {
+        return searcher.mostPublishedAuthorsInYears(1800, 2010);
+    }
+
+    @Benchmark
+    public int mostPublishedAuthorsInYearsStreaming(Blackhole blackhole) {
+        return searcher.mostPublishedAuthorsInYears(1800, 2010, authors, blackhole::consume);
+    }
+}
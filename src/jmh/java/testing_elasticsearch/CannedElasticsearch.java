@@ -0,0 +1,121 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP stub answering the {@link BookSearcher} queries with canned ES|QL responses,
+ * so the whole client stack can be measured without a cluster, and without the cluster's own noise.
+ * Bulk requests are acknowledged without looking at the documents.
+ */
+class CannedElasticsearch implements AutoCloseable {
+
+    static final String VERSION_RESPONSE = """
+        {"columns":[{"name":"major","type":"keyword"},{"name":"minor","type":"keyword"}],"values":[["8","15"]]}""";
+
+    static final String COUNT_RESPONSE = """
+        {"columns":[{"name":"published","type":"long"}],"values":[[42]]}""";
+
+    static final String REFRESH_RESPONSE = """
+        {"_shards":{"total":1,"successful":1,"failed":0}}""";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final byte[] histogramResponse;
+    private final byte[] mostPublishedResponse;
+
+    CannedElasticsearch(int authors) throws IOException {
+        this.histogramResponse = histogramResponse(1800, 2010).getBytes(StandardCharsets.UTF_8);
+        this.mostPublishedResponse = mostPublishedResponse(authors).getBytes(StandardCharsets.UTF_8);
+        // otherwise small responses wait for delayed ACKs, and we'd be measuring those
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    HttpHost httpHost() {
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+
+    ElasticsearchClient client() {
+        return new ElasticsearchClient(new RestClientTransport(
+            new ElasticsearchRestClientBuilder().withHttpHost(httpHost()).build(),
+            new JacksonJsonpMapper()));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String path = exchange.getRequestURI().getPath();
+        byte[] response;
+        if (path.endsWith("/_bulk")) {
+            response = bulkResponse(body).getBytes(StandardCharsets.UTF_8);
+        } else if (path.endsWith("/_refresh")) {
+            response = REFRESH_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        } else if (body.contains("show info")) {
+            response = VERSION_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        } else if (body.contains("by year")) {
+            response = histogramResponse;
+        } else if (body.contains("by author")) {
+            response = mostPublishedResponse;
+        } else {
+            response = COUNT_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    // every document of the bulk request is acknowledged as created
+    static String bulkResponse(String body) {
+        StringBuilder json = new StringBuilder("{\"took\":1,\"errors\":false,\"items\":[");
+        int items = (int) body.lines().filter(line -> line.startsWith("{\"index\"")).count();
+        for (int i = 0; i < items; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"index\":{\"_index\":\"books\",\"_id\":\"").append(i)
+                .append("\",\"status\":201,\"result\":\"created\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    static String histogramResponse(int minYear, int maxYear) {
+        StringBuilder json = new StringBuilder("""
+            {"columns":[{"name":"published","type":"long"},{"name":"year","type":"integer"}],"values":[""");
+        for (int year = minYear; year <= maxYear; year++) {
+            json.append(year == minYear ? "" : ",").append('[').append(year % 97).append(',').append(year).append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    static String mostPublishedResponse(int authors) {
+        StringBuilder json = new StringBuilder("""
+            {"columns":[{"name":"first_published","type":"integer"},{"name":"last_published","type":"integer"},\
+            {"name":"times","type":"long"},{"name":"author","type":"keyword"}],"values":[""");
+        for (int i = 0; i < authors; i++) {
+            json.append(i == 0 ? "" : ",")
+                .append('[').append(1800 + i % 100).append(',').append(1900 + i % 100).append(',').append(1 + i % 50)
+                .append(",\"Author number ").append(i).append("\"]");
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+}
@@ -0,0 +1,49 @@
+package testing_elasticsearch;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What building (and closing) a client costs, i.e. why it should be built once and shared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientConstructionBenchmark {
+
+    @Benchmark
+    public int buildSingleHostClient() throws IOException {
+        try (RestClient restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHost(new HttpHost("localhost", 9200))
+            .withUsernameAndPassword("elastic", "changeme")
+            .build()) {
+            return restClient.getNodes().size();
+        }
+    }
+
+    @Benchmark
+    public int buildMultiHostTunedClient() throws IOException {
+        try (RestClient restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHosts(new HttpHost("es1", 9200), new HttpHost("es2", 9200), new HttpHost("es3", 9200))
+            .withUsernameAndPassword("elastic", "changeme")
+            .withMaxConnectionsPerRoute(50)
+            .withMaxConnectionsTotal(150)
+            .withIoThreads(2)
+            .withCompression(true)
+            .build()) {
+            return restClient.getNodes().size();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
+import co.elastic.clients.elasticsearch._helpers.esql.objects.ObjectsEsqlAdapter;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the same most published authors response by the adapters we have, without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EsqlDecodingBenchmark {
+
+    @Param({"20", "2000"})
+    int authors;
+
+    byte[] response;
+    ElasticsearchClient client;
+
+    @Setup
+    public void setUp() {
+        response = CannedElasticsearch.mostPublishedResponse(authors).getBytes(StandardCharsets.UTF_8);
+        // the adapters only need the client for its mapper, nothing is ever sent
+        client = new ElasticsearchClient(new RestClientTransport(
+            new ElasticsearchRestClientBuilder().withHttpHost("localhost").build(),
+            new JacksonJsonpMapper()));
+    }
+
+    @Benchmark
+    public void resultSetAdapter(Blackhole blackhole) throws IOException, SQLException {
+        try (ResultSet rs = ResultSetEsqlAdapter.INSTANCE.deserialize(client.esql(), null, binaryResponse())) {
+            while (rs.next()) {
+                blackhole.consume(new BookSearcher.MostPublished(
+                    rs.getString("author"), rs.getInt("first_published"), rs.getInt("last_published"), rs.getInt("times")));
+            }
+        }
+    }
+
+    @Benchmark
+    public void objectsAdapter(Blackhole blackhole) throws IOException {
+        for (BookSearcher.MostPublished published : ObjectsEsqlAdapter.of(BookSearcher.MostPublished.class).deserialize(client.esql(), null, binaryResponse())) {
+            blackhole.consume(published);
+        }
+    }
+
+    @Benchmark
+    public int recordAdapter(Blackhole blackhole) throws IOException {
+        return new RecordEsqlAdapter<>(BookSearcher.MostPublished.class, blackhole::consume).deserialize(client.esql(), null, binaryResponse());
+    }
+
+    private BinaryResponse binaryResponse() {
+        return new BinaryResponse() {
+            @Override
+            public String contentType() {
+                return "application/json";
+            }
+
+            @Override
+            public long contentLength() {
+                return response.length;
+            }
+
+            @Override
+            public InputStream content() {
+                return new ByteArrayInputStream(response);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.IndexRequest;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization side of ingestion: one bulk body for a batch of books, versus a separate request body per book.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionSerializationBenchmark {
+
+    @Param({"1000"})
+    int books;
+
+    final JsonpMapper mapper = new JacksonJsonpMapper();
+    List<Book> batch;
+
+    @Setup
+    public void setUp() {
+        batch = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) {
+            batch.add(new Book("Title " + i, "A description of the book number " + i, "Author " + i % 100, 1800 + i % 200, "Publisher " + i % 10, 3.5f));
+        }
+    }
+
+    @Benchmark
+    public int bulk() {
+        BulkRequest request = BulkRequest.of(b -> {
+            for (Book book : batch) {
+                b.operations(op -> op.index(i -> i.index("books").document(book)));
+            }
+            return b;
+        });
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // the same NDJSON lines the transport writes for a bulk request
+        for (Iterator<?> lines = request._serializables(); lines.hasNext(); ) {
+            try (JsonGenerator generator = mapper.jsonProvider().createGenerator(body)) {
+                mapper.serialize(lines.next(), generator);
+            }
+            body.write('\n');
+        }
+        return body.size();
+    }
+
+    @Benchmark
+    public int singleDocuments() {
+        int size = 0;
+        for (Book book : batch) {
+            IndexRequest<Book> request = IndexRequest.of(i -> i.index("books").document(book));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (JsonGenerator generator = mapper.jsonProvider().createGenerator(body)) {
+                mapper.serialize(request.document(), generator);
+            }
+            size += body.size();
+        }
+        return size;
+    }
+}
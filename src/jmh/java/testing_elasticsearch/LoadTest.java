@@ -0,0 +1,109 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capacity test of one client JVM: drives a mix of {@link BookSearcher} queries and {@link BookIngester} batches
+ * with a {@link LoadGenerator}, at one or more arrival rates, and prints throughput and latency percentiles per rate.
+ * The highest rate which is still sustained, with latencies you can live with, is what one client instance can take.
+ * <p>
+ * Arguments are {@code key=value} pairs:
+ * <ul>
+ *     <li>{@code target}: {@code canned} (default) for a local stand-in, which measures the client alone,
+ *     or {@code container} for an Elasticsearch node in Testcontainers, with the books indexed</li>
+ *     <li>{@code rates}: comma separated operations per second, default {@code 100,500,1000}</li>
+ *     <li>{@code duration} and {@code warmup}: in seconds, default 30 and 5</li>
+ *     <li>{@code mix}: comma separated {@code operation:weight}, default all the operations with the same weight;
+ *     the operations are {@code count}, {@code histogram}, {@code authors}, {@code authorsStreaming} and {@code ingest}</li>
+ *     <li>{@code batch}: the books per {@code ingest} operation, default 100</li>
+ * </ul>
+ * For example: {@code ./mvnw -P jmh test-compile exec:exec -Djmh.main=testing_elasticsearch.LoadTest -Djmh.args="rates=200,400 mix=count:8,ingest:1"}
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(Map.of(
+            "target", "canned",
+            "rates", "100,500,1000",
+            "duration", "30",
+            "warmup", "5",
+            "mix", "count:1,histogram:1,authors:1,authorsStreaming:1,ingest:1",
+            "batch", "100"));
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option[1]);
+        }
+
+        AutoCloseable target = null;
+        ElasticsearchClient esClient;
+        if (options.get("target").equals("container")) {
+            esClient = new ElasticsearchClient(BooksFixture.shared().newTransport());
+        } else {
+            CannedElasticsearch elasticsearch = new CannedElasticsearch(20);
+            target = elasticsearch;
+            esClient = elasticsearch.client();
+        }
+
+        try (ElasticsearchTransport transport = esClient._transport()) {
+            BookSearcher searcher = new BookSearcher(esClient);
+            int batch = Integer.parseInt(options.get("batch"));
+            byte[] books = books(batch);
+            ObjectMapper mapper = new ObjectMapper();
+            // a separate index, so the books the queries run on stay as they are
+            BookIngester ingester = new BookIngester(esClient).withIndex("load-test-books");
+
+            for (String rate : options.get("rates").split(",")) {
+                LoadGenerator generator = new LoadGenerator()
+                    .withRate(Double.parseDouble(rate))
+                    .withDuration(Duration.ofSeconds(Long.parseLong(options.get("duration"))))
+                    .withWarmUp(Duration.ofSeconds(Long.parseLong(options.get("warmup"))));
+                for (String operation : options.get("mix").split(",")) {
+                    String[] weighted = operation.split(":");
+                    double weight = Double.parseDouble(weighted[1]);
+                    switch (weighted[0]) {
+                        case "count" -> generator.withOperation("numberOfBooksPublishedInYear", weight,
+                            () -> searcher.numberOfBooksPublishedInYear(1900 + ThreadLocalRandom.current().nextInt(120)));
+                        case "histogram" -> generator.withOperation("numberOfBooksPublishedInYears", weight,
+                            () -> searcher.numberOfBooksPublishedInYears(1800, 2010));
+                        case "authors" -> generator.withOperation("mostPublishedAuthorsInYears", weight,
+                            () -> searcher.mostPublishedAuthorsInYears(1800, 2010));
+                        case "authorsStreaming" -> generator.withOperation("mostPublishedAuthorsInYears streaming", weight,
+                            () -> searcher.mostPublishedAuthorsInYears(1800, 2010, 1000, author -> {
+                            }));
+                        case "ingest" -> generator.withOperation("ingest (books)", weight, batch, () -> {
+                            try {
+                                ingester.ingest(mapper.readerFor(Book.class).readValues(books));
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+                        default -> throw new IllegalArgumentException("Unknown operation " + weighted[0]);
+                    }
+                }
+                System.out.println(generator.run());
+            }
+        } finally {
+            if (target != null) {
+                target.close();
+            }
+        }
+    }
+
+    private static byte[] books(int count) throws IOException {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(new Book("Title " + i, "Description of book " + i, "Author " + i % 50, 1800 + i % 220, "Publisher", 1 + i % 5));
+        }
+        return new ObjectMapper().writeValueAsBytes(books);
+    }
+}
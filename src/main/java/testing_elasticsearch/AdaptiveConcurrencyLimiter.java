@@ -0,0 +1,308 @@
+package testing_elasticsearch;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many queries are in flight at once, with a limit which adapts to what the cluster can take (AIMD):
+ * it grows by one per round trip while latencies stay close to the lowest seen, and shrinks by a ratio when they
+ * don't, or when the cluster rejects a query with a 429. Shrinking happens at most once per round trip, since all
+ * the queries which were in flight at the time went through the same congestion.
+ * <p>
+ * Callers beyond the limit wait in a bounded queue, and are shed right away when it's full, or when the wait they can
+ * expect won't let their query finish before its deadline: failing fast beats piling up work whose result nobody
+ * waits for anymore. Freed permits go to the query type with the fewest queries in flight, so that a burst of one type
+ * doesn't starve the others.
+ * <p>
+ * Everything is guarded by one lock, only held for bookkeeping, never while waiting.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    private static final double RTT_ALPHA = 0.1;
+    private static final long RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Type> types = new HashMap<>();
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private int maxQueued = 1_000;
+    private double tolerance = 2.0;
+    private double backoffRatio = 0.9;
+
+    private double limit = 10;
+    private int inFlight;
+    private int queued;
+    private long decreasedAtNanos = System.nanoTime();
+    private double averageRttNanos;
+    // the lowest latency of this window and of the previous one, so that it can go up when the data grows
+    private long minRttNanos = Long.MAX_VALUE;
+    private long previousMinRttNanos = Long.MAX_VALUE;
+    private long windowStartedNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter withInitialLimit(int initialLimit) {
+        assert initialLimit > 0;
+        this.limit = initialLimit;
+        return this;
+    }
+
+    public AdaptiveConcurrencyLimiter withMinLimit(int minLimit) {
+        assert minLimit > 0;
+        this.minLimit = minLimit;
+        return this;
+    }
+
+    public AdaptiveConcurrencyLimiter withMaxLimit(int maxLimit) {
+        assert maxLimit > 0;
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    public AdaptiveConcurrencyLimiter withMaxQueued(int maxQueued) {
+        assert maxQueued >= 0;
+        this.maxQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * @param tolerance how many times the lowest latency seen a latency may be before the limit shrinks
+     */
+    public AdaptiveConcurrencyLimiter withTolerance(double tolerance) {
+        assert tolerance >= 1;
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param backoffRatio what the limit gets multiplied with when it shrinks
+     */
+    public AdaptiveConcurrencyLimiter withBackoffRatio(double backoffRatio) {
+        assert backoffRatio > 0 && backoffRatio < 1;
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Waits until a query of {@code queryType} may be sent.
+     *
+     * @param deadlineNanos by when, as in {@link System#nanoTime()}, the query has to be done
+     * @return the permit, which has to be given back with its outcome once the query is done
+     * @throws RejectedExecutionException when the query is shed
+     */
+    public Permit acquire(String queryType, long deadlineNanos) throws InterruptedException {
+        Waiter waiter;
+        lock.lock();
+        try {
+            Type type = types.computeIfAbsent(queryType, t -> new Type());
+            if (queued == 0 && inFlight < (int) limit) {
+                return grant(type);
+            }
+            if (queued >= maxQueued) {
+                throw new RejectedExecutionException("Too many queries waiting: " + queued);
+            }
+            long expected = System.nanoTime() + expectedWaitNanos(queued) + (long) averageRttNanos;
+            if (expected - deadlineNanos > 0) {
+                throw new RejectedExecutionException("Query wouldn't be done before its deadline");
+            }
+            waiter = new Waiter(type, deadlineNanos);
+            type.waiting.add(waiter);
+            queued++;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            return waiter.permit.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw (RejectedExecutionException) e.getCause();
+        } catch (TimeoutException | InterruptedException e) {
+            lock.lock();
+            try {
+                // the permit may have been granted meanwhile
+                if (!waiter.permit.isDone() && waiter.type.waiting.remove(waiter)) {
+                    queued--;
+                    if (e instanceof InterruptedException interrupted) {
+                        throw interrupted;
+                    }
+                    throw new RejectedExecutionException("Query wouldn't be done before its deadline");
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                return waiter.permit.join();
+            } catch (CompletionException shed) {
+                throw (RejectedExecutionException) shed.getCause();
+            }
+        }
+    }
+
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant(Type type) {
+        inFlight++;
+        type.inFlight++;
+        return new Permit(type, System.nanoTime(), inFlight);
+    }
+
+    // every wave of limit queries takes about a round trip
+    private long expectedWaitNanos(int ahead) {
+        return (long) ((ahead / Math.max(1, (int) limit) + 1) * averageRttNanos);
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            inFlight--;
+            permit.type.inFlight--;
+            long rtt = now - permit.grantedNanos;
+            switch (outcome) {
+                case SUCCESS -> {
+                    sample(now, rtt);
+                    if (rtt > tolerance * Math.min(minRttNanos, previousMinRttNanos)) {
+                        decrease(permit, now);
+                    } else if (permit.inFlightAtGrant * 2 >= limit) {
+                        // only when the limit was actually used, else it would grow without bounds while idle
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                case THROTTLED -> decrease(permit, now);
+                case DROPPED -> {
+                }
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long now, long rtt) {
+        averageRttNanos = averageRttNanos == 0 ? rtt : averageRttNanos + RTT_ALPHA * (rtt - averageRttNanos);
+        if (now - windowStartedNanos > RTT_WINDOW_NANOS) {
+            previousMinRttNanos = minRttNanos;
+            minRttNanos = Long.MAX_VALUE;
+            windowStartedNanos = now;
+        }
+        minRttNanos = Math.min(minRttNanos, rtt);
+    }
+
+    private void decrease(Permit permit, long now) {
+        if (permit.grantedNanos - decreasedAtNanos > 0) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            decreasedAtNanos = now;
+        }
+    }
+
+    private void dispatch() {
+        while (queued > 0 && inFlight < (int) limit) {
+            Type fairest = null;
+            for (Type type : types.values()) {
+                if (!type.waiting.isEmpty() && (fairest == null || type.inFlight < fairest.inFlight)) {
+                    fairest = type;
+                }
+            }
+            Waiter waiter = fairest.waiting.poll();
+            queued--;
+            if (System.nanoTime() - waiter.deadlineNanos > 0) {
+                waiter.permit.completeExceptionally(new RejectedExecutionException("Query wouldn't be done before its deadline"));
+            } else {
+                waiter.permit.complete(grant(fairest));
+            }
+        }
+    }
+
+    enum Outcome {
+        SUCCESS, THROTTLED, DROPPED
+    }
+
+    /**
+     * The right to send one query; give it back exactly once, with what happened to the query.
+     */
+    public final class Permit {
+
+        private final Type type;
+        private final long grantedNanos;
+        private final int inFlightAtGrant;
+        private boolean released;
+
+        private Permit(Type type, long grantedNanos, int inFlightAtGrant) {
+            this.type = type;
+            this.grantedNanos = grantedNanos;
+            this.inFlightAtGrant = inFlightAtGrant;
+        }
+
+        /**
+         * The query got its response, whose latency counts.
+         */
+        public void success() {
+            release(Outcome.SUCCESS);
+        }
+
+        /**
+         * The cluster rejected the query because it's overloaded.
+         */
+        public void throttled() {
+            release(Outcome.THROTTLED);
+        }
+
+        /**
+         * The query failed for some other reason, which tells nothing about the load.
+         */
+        public void dropped() {
+            release(Outcome.DROPPED);
+        }
+
+        private void release(Outcome outcome) {
+            assert !released;
+            released = true;
+            AdaptiveConcurrencyLimiter.this.release(this, outcome);
+        }
+    }
+
+    private static final class Type {
+        final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+        int inFlight;
+    }
+
+    private record Waiter(Type type, long deadlineNanos, CompletableFuture<Permit> permit) {
+        Waiter(Type type, long deadlineNanos) {
+            this(type, deadlineNanos, new CompletableFuture<>());
+        }
+    }
+}
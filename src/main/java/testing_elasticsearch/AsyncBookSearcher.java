@@ -0,0 +1,119 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._helpers.esql.EsqlAdapter;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch.esql.QueryRequest;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import testing_elasticsearch.BookSearcher.MostPublished;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of {@link BookSearcher}: no thread waits for Elasticsearch while a query is in flight.
+ * Cancelling a returned future, or letting it time out, aborts the underlying HTTP request.
+ * The instance holds no locks nor thread locals, so it can be shared between any number of (virtual) threads.
+ */
+public class AsyncBookSearcher {
+
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ElasticsearchAsyncClient esClient;
+    private final Duration defaultTimeout;
+
+    public AsyncBookSearcher(ElasticsearchAsyncClient esClient) {
+        this(esClient, DEFAULT_TIMEOUT);
+    }
+
+    public AsyncBookSearcher(ElasticsearchAsyncClient esClient, Duration defaultTimeout) {
+        this(esClient, defaultTimeout, BackendVersionCache.shared());
+    }
+
+    public AsyncBookSearcher(ElasticsearchAsyncClient esClient, Duration defaultTimeout, BackendVersionCache versionCache) {
+        this.esClient = esClient;
+        this.defaultTimeout = defaultTimeout;
+        // this happens once, on the startup path, so it's fine to wait here
+        if (!BookSearcher.isCompatibleVersion(versionCache.version(esClient, this::probeVersion).join())) {
+            throw new UnsupportedOperationException("This is not compatible with backend");
+        }
+    }
+
+    private CompletableFuture<BackendVersionCache.Version> probeVersion() {
+        List<BackendVersionCache.Version> versions = new ArrayList<>(1);
+        return query(new RecordEsqlAdapter<>(BackendVersionCache.Version.class, versions::add), rows -> {
+            if (versions.isEmpty()) {
+                throw new RuntimeException("No version found");
+            }
+            return versions.getFirst();
+        }, defaultTimeout, BookSearcher.VERSION_QUERY);
+    }
+
+    public CompletableFuture<Integer> numberOfBooksPublishedInYear(int year) {
+        return numberOfBooksPublishedInYear(year, defaultTimeout);
+    }
+
+    public CompletableFuture<Integer> numberOfBooksPublishedInYear(int year, Duration timeout) {
+        int[] published = new int[1];
+        return query(new RecordEsqlAdapter<>(BookSearcher.Published.class, row -> published[0] = row.published()),
+            rows -> published[0], timeout, BookSearcher.BOOKS_PUBLISHED_IN_YEAR_QUERY, year);
+    }
+
+    public CompletableFuture<YearHistogram> numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        return numberOfBooksPublishedInYears(minYear, maxYear, defaultTimeout);
+    }
+
+    public CompletableFuture<YearHistogram> numberOfBooksPublishedInYears(int minYear, int maxYear, Duration timeout) {
+        assert minYear <= maxYear;
+        BookSearcher.checkYears(minYear, maxYear);
+        String query = BookSearcher.BOOKS_PUBLISHED_IN_YEARS_QUERY.formatted(maxYear - minYear + 1);
+        return query(new YearHistogram.Adapter(minYear, maxYear), Function.identity(), timeout, query, minYear, maxYear);
+    }
+
+    public CompletableFuture<List<MostPublished>> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        return mostPublishedAuthorsInYears(minYear, maxYear, defaultTimeout);
+    }
+
+    public CompletableFuture<List<MostPublished>> mostPublishedAuthorsInYears(int minYear, int maxYear, Duration timeout) {
+        assert minYear <= maxYear;
+        List<MostPublished> mostPublishedAuthors = new ArrayList<>();
+        return query(new RecordEsqlAdapter<>(MostPublished.class, mostPublishedAuthors::add), rows -> mostPublishedAuthors, timeout, BookSearcher.MOST_PUBLISHED_AUTHORS_QUERY, minYear, maxYear);
+    }
+
+    // EsqlHelper.queryAsync would give us a dependent future, and cancelling that one doesn't abort the request,
+    // so we keep hold of the transport's future ourselves; the result is finished in the same stage,
+    // which makes the returned future the one callers can cancel
+    private <T, R> CompletableFuture<R> query(EsqlAdapter<T> adapter, Function<T, R> finisher, Duration timeout, String query, int... params) {
+        List<FieldValue> values = new ArrayList<>(params.length);
+        for (int param : params) {
+            values.add(FieldValue.of(param));
+        }
+        QueryRequest request = QueryRequest.of(q -> q
+            .query(query)
+            .params(values)
+            .format(adapter.format())
+            .columnar(adapter.columnar()));
+
+        CompletableFuture<BinaryResponse> response = esClient.esql().query(request);
+        CompletableFuture<R> result = response.thenApply(r -> {
+            try {
+                return finisher.apply(adapter.deserialize(esClient.esql(), request, r));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                response.cancel(true);
+            }
+        });
+        return result;
+    }
+}
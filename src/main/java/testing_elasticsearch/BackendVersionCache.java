@@ -0,0 +1,88 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.ApiClient;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import org.elasticsearch.client.Node;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the version of each cluster, so the compatibility probe runs once per cluster and TTL,
+ * not once per {@link BookSearcher}.
+ * Clusters are told apart by the set of hosts the client talks to, so when the nodes change
+ * (e.g. the client got reconfigured or sniffed new ones) the version gets probed again.
+ * Concurrent callers for the same cluster share a single probe; failed probes aren't remembered.
+ */
+public class BackendVersionCache {
+
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    static final BackendVersionCache SHARED = new BackendVersionCache(DEFAULT_TTL);
+
+    private final long ttlNanos;
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    public BackendVersionCache(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public static BackendVersionCache shared() {
+        return SHARED;
+    }
+
+    CompletableFuture<Version> version(ApiClient<?, ?> client, Supplier<CompletableFuture<Version>> probe) {
+        Object key = keyOf(client);
+        long now = System.nanoTime();
+        Entry fresh = new Entry(new CompletableFuture<>(), now + ttlNanos);
+        Entry current = entries.compute(key, (k, e) -> e == null || e.isStale(now) ? fresh : e);
+        if (current == fresh) {
+            try {
+                probe.get().whenComplete((version, failure) -> {
+                    if (failure != null) {
+                        entries.remove(key, fresh);
+                        fresh.version.completeExceptionally(failure);
+                    } else {
+                        fresh.version.complete(version);
+                    }
+                });
+            } catch (RuntimeException e) {
+                entries.remove(key, fresh);
+                fresh.version.completeExceptionally(e);
+            }
+        }
+        return current.version;
+    }
+
+    public void invalidate(ApiClient<?, ?> client) {
+        entries.remove(keyOf(client));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    static Object keyOf(ApiClient<?, ?> client) {
+        if (client._transport() instanceof RestClientTransport restClientTransport) {
+            return restClientTransport.restClient().getNodes().stream()
+                .map(Node::getHost)
+                .collect(Collectors.toUnmodifiableSet());
+        }
+        // other transports, or none at all for mocked clients
+        return client._transport() != null ? client._transport() : client;
+    }
+
+    public record Version(int major, int minor) {
+    }
+
+    private record Entry(CompletableFuture<Version> version, long expiresAtNanos) {
+
+        boolean isStale(long now) {
+            return now - expiresAtNanos >= 0 || version.isCompletedExceptionally();
+        }
+    }
+}
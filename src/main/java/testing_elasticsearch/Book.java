@@ -0,0 +1,15 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+// the order matters for the CSV data we use to initialize Elasticsearch
+@JsonPropertyOrder({"title", "description", "author", "year", "publisher", "ratings"})
+public record Book(
+    String title,
+    String description,
+    String author,
+    int year,
+    String publisher,
+    float ratings
+) {
+}
@@ -0,0 +1,169 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams books into Elasticsearch using batched {@code _bulk} requests instead of one {@code index} call per book.
+ * Several bulk requests are kept in flight at once; when all of them are busy, adding further books blocks,
+ * so the reading side never runs ahead of what the cluster can take.
+ * The index is refreshed once, after the last batch has been acknowledged.
+ * With {@link BookPartitions}, every book goes to the partition of its year instead.
+ */
+public class BookIngester {
+
+    private final ElasticsearchClient esClient;
+    private String index = "books";
+    private int maxOperations = 1_000;
+    private long maxSizeInBytes = 5L * 1024 * 1024;
+    private int maxConcurrentRequests = 4;
+    private BookPartitions partitions = BookPartitions.NONE;
+    private final List<Runnable> refreshListeners = new ArrayList<>();
+
+    public BookIngester(ElasticsearchClient esClient) {
+        this.esClient = esClient;
+    }
+
+    public BookIngester withIndex(String index) {
+        this.index = index;
+        return this;
+    }
+
+    public BookIngester withMaxOperations(int maxOperations) {
+        assert maxOperations > 0;
+        this.maxOperations = maxOperations;
+        return this;
+    }
+
+    public BookIngester withMaxSizeInBytes(long maxSizeInBytes) {
+        assert maxSizeInBytes > 0;
+        this.maxSizeInBytes = maxSizeInBytes;
+        return this;
+    }
+
+    public BookIngester withMaxConcurrentRequests(int maxConcurrentRequests) {
+        assert maxConcurrentRequests > 0;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * @param partitions which get the books, instead of the index; they get created as needed,
+     *                   see {@link BookPartitions#putIndexTemplate}
+     */
+    public BookIngester withPartitions(BookPartitions partitions) {
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * @param listener called after the index got refreshed, e.g. to invalidate cached query results
+     */
+    public BookIngester withRefreshListener(Runnable listener) {
+        this.refreshListeners.add(listener);
+        return this;
+    }
+
+    public Report ingest(MappingIterator<Book> books) throws IOException {
+        AtomicLong indexed = new AtomicLong();
+        List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        long malformed = 0;
+        // the listener is called on the scheduler once a request is done, which can be after closing the ingester
+        // returned, so every request in flight is a party of its own, and the report waits for all of them
+        Phaser bulks = new Phaser(1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        BulkListener<Book> listener = new BulkListener<>() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request, List<Book> contexts) {
+                bulks.register();
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, List<Book> contexts, BulkResponse response) {
+                try {
+                    List<BulkResponseItem> items = response.items();
+                    for (int i = 0; i < items.size(); i++) {
+                        BulkResponseItem item = items.get(i);
+                        if (item.error() == null) {
+                            indexed.incrementAndGet();
+                            partitions.add(contexts.get(i).year());
+                        } else {
+                            failures.add(new Failure(contexts.get(i), item.status(), item.error().reason(), null));
+                        }
+                    }
+                } finally {
+                    bulks.arriveAndDeregister();
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, List<Book> contexts, Throwable failure) {
+                try {
+                    for (Book book : contexts) {
+                        failures.add(new Failure(book, 0, failure.getMessage(), failure));
+                    }
+                } finally {
+                    bulks.arriveAndDeregister();
+                }
+            }
+        };
+
+        try {
+            try (BulkIngester<Book> ingester = BulkIngester.of(b -> b
+                .client(esClient)
+                .maxOperations(maxOperations)
+                .maxSize(maxSizeInBytes)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .scheduler(scheduler)
+                .listener(listener))) {
+
+                while (true) {
+                    Book book;
+                    try {
+                        // reading ahead to the next value parses it as well, so it can fail just the same
+                        if (!books.hasNextValue()) {
+                            break;
+                        }
+                        book = books.nextValue();
+                    } catch (JsonProcessingException e) {
+                        // malformed data is counted, but doesn't stop the ingestion
+                        malformed++;
+                        continue;
+                    }
+                    String target = partitions.partitioned() ? partitions.indexFor(book.year()) : index;
+                    ingester.add(op -> op.index(i -> i.index(target).document(book)), book);
+                }
+            }
+            bulks.arriveAndAwaitAdvance();
+        } finally {
+            scheduler.shutdown();
+        }
+        // all the requests are done and reported by now, so a single refresh is enough
+        esClient.indices().refresh(r -> r.index(partitions.partitioned() ? BookPartitions.ALIAS : index));
+        refreshListeners.forEach(Runnable::run);
+
+        return new Report(indexed.get(), malformed, List.copyOf(failures));
+    }
+
+    public record Report(long indexed, long malformed, List<Failure> failures) {
+    }
+
+    public record Failure(Book book, int status, String reason, Throwable cause) {
+    }
+}
@@ -0,0 +1,201 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Layout of the books split into one index per decade, {@code books-1990} and so on, all behind the {@code books} alias.
+ * Queries over a range of years then only touch the partitions which overlap it, rather than every shard of one big index,
+ * and partitions of decades which are over can be sealed: made read-only and merged down to a single segment.
+ * Keeps track of which partitions exist, so that queries never name one which doesn't. Partitions created elsewhere,
+ * e.g. by another ingesting process, are picked up by looking at the alias again when a range has decades
+ * without a known partition, at most every {@link #REFRESH_INTERVAL}.
+ */
+public final class BookPartitions {
+
+    public static final String ALIAS = "books";
+    static final String PREFIX = ALIAS + "-";
+    static final int YEARS_PER_PARTITION = 10;
+    // at most 9 digits, so that any name which matches parses as an int
+    static final Pattern PARTITION = Pattern.compile(Pattern.quote(PREFIX) + "(-?\\d{1,9})");
+    static final Duration REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * The layout of a single {@code books} index: queries are sent as they are.
+     */
+    public static final BookPartitions NONE = new BookPartitions(false, null, REFRESH_INTERVAL);
+
+    private final boolean partitioned;
+    private final NavigableSet<Integer> decades = new ConcurrentSkipListSet<>();
+    // null when the partitions are only known from add()
+    private final ElasticsearchClient esClient;
+    private final long refreshIntervalNanos;
+    private final AtomicLong refreshedAtNanos = new AtomicLong();
+
+    /**
+     * Partitions known only from {@link #add(int)}, e.g. while ingesting into a new alias.
+     */
+    public BookPartitions() {
+        this(true, null, REFRESH_INTERVAL);
+    }
+
+    private BookPartitions(boolean partitioned, ElasticsearchClient esClient, Duration refreshInterval) {
+        this.partitioned = partitioned;
+        this.esClient = esClient;
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+    }
+
+    /**
+     * @return the partitions which currently are behind the alias, and which look at it again when they miss some
+     */
+    public static BookPartitions load(ElasticsearchClient esClient) throws IOException {
+        return load(esClient, REFRESH_INTERVAL);
+    }
+
+    static BookPartitions load(ElasticsearchClient esClient, Duration refreshInterval) throws IOException {
+        BookPartitions partitions = new BookPartitions(true, esClient, refreshInterval);
+        partitions.refreshedAtNanos.set(System.nanoTime());
+        partitions.refresh();
+        return partitions;
+    }
+
+    private void refresh() throws IOException {
+        if (esClient.indices().existsAlias(a -> a.name(ALIAS)).value()) {
+            for (String index : esClient.indices().getAlias(a -> a.name(ALIAS)).result().keySet()) {
+                // other indices may be behind the alias too, e.g. left over by a reindex; they aren't partitions
+                Matcher partition = PARTITION.matcher(index);
+                if (partition.matches()) {
+                    int decade = Integer.parseInt(partition.group(1));
+                    if (decade == decadeOf(decade)) {
+                        decades.add(decade);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes every index created for a partition get the {@link BookSchema} and join the alias, so that ingestion
+     * can create partitions just by writing to them.
+     */
+    public static void putIndexTemplate(ElasticsearchClient esClient) throws IOException {
+        esClient.indices().putIndexTemplate(t -> t
+            .name(ALIAS)
+            .indexPatterns(PREFIX + "*")
+            .template(m -> m
+                .mappings(BookSchema.mapping())
+                .settings(BookSchema.settings())
+                .aliases(ALIAS, a -> a)));
+    }
+
+    public boolean partitioned() {
+        return partitioned;
+    }
+
+    public static int decadeOf(int year) {
+        return Math.floorDiv(year, YEARS_PER_PARTITION) * YEARS_PER_PARTITION;
+    }
+
+    /**
+     * @return the index the books of {@code year} go to
+     */
+    public String indexFor(int year) {
+        return partitioned ? PREFIX + decadeOf(year) : ALIAS;
+    }
+
+    /**
+     * Records that the partition of {@code year} has books, e.g. once they were ingested.
+     */
+    public void add(int year) {
+        if (partitioned) {
+            decades.add(decadeOf(year));
+        }
+    }
+
+    /**
+     * @return the existing partitions which overlap {@code minYear} to {@code maxYear} inclusive
+     */
+    public List<String> indicesFor(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        if (!partitioned) {
+            return List.of(ALIAS);
+        }
+        NavigableSet<Integer> overlapping = decades.subSet(decadeOf(minYear), true, decadeOf(maxYear), true);
+        int overlappingDecades = (decadeOf(maxYear) - decadeOf(minYear)) / YEARS_PER_PARTITION + 1;
+        if (overlapping.size() < overlappingDecades) {
+            refreshOnMiss();
+        }
+        List<String> indices = new ArrayList<>();
+        for (int decade : overlapping) {
+            indices.add(PREFIX + decade);
+        }
+        return indices;
+    }
+
+    // decades without books are misses too, hence the interval: they'd otherwise ask on every query
+    private void refreshOnMiss() {
+        if (esClient == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long refreshedAt = refreshedAtNanos.get();
+        if (now - refreshedAt < refreshIntervalNanos || !refreshedAtNanos.compareAndSet(refreshedAt, now)) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (IOException e) {
+            // the partitions known so far are still right, just maybe not all of them; asked again after the interval
+        }
+    }
+
+    /**
+     * Rewrites {@code from books} of {@code query} to the partitions which overlap the years.
+     *
+     * @return the rewritten query, or null when no partition overlaps, so there's nothing to query
+     */
+    String rewrite(String query, int minYear, int maxYear) {
+        if (!partitioned) {
+            return query;
+        }
+        List<String> indices = indicesFor(minYear, maxYear);
+        if (indices.isEmpty()) {
+            return null;
+        }
+        String from = "from " + ALIAS + "\n";
+        assert query.startsWith(from) : query;
+        return "from " + String.join(", ", indices) + "\n" + query.substring(from.length());
+    }
+
+    /**
+     * Makes the partitions of the decades which ended before {@code year} read-only and merges each of them into
+     * a single segment, which makes them cheaper to search and to keep.
+     * The frozen tier would take this further, but it needs searchable snapshots, so it's left to ILM.
+     *
+     * @return the partitions which got sealed
+     */
+    public List<String> sealBefore(ElasticsearchClient esClient, int year) throws IOException {
+        assert partitioned;
+        List<String> sealed = new ArrayList<>();
+        for (int decade : decades.headSet(decadeOf(year), false)) {
+            String index = PREFIX + decade;
+            esClient.indices().putSettings(s -> s
+                .index(index)
+                .settings(i -> i.blocks(b -> b.write(true))));
+            esClient.indices().forcemerge(f -> f
+                .index(index)
+                .maxNumSegments(1L));
+            sealed.add(index);
+        }
+        return sealed;
+    }
+}
@@ -0,0 +1,294 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.elasticsearch.indices.SegmentSortOrder;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.json.JsonData;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns the mapping and the settings of the books, and migrates an existing index to them when they change.
+ * <ul>
+ *     <li>{@code author} is a {@code keyword}, so {@code stats ... by author} aggregates over doc values
+ *     rather than failing or loading field data; full-text search goes to its {@code author.text} subfield;</li>
+ *     <li>the segments are sorted by {@code year}, so range filters on it read contiguous doc ids and can stop early;</li>
+ *     <li>while bulk loading, refreshes are off and there are no replicas, and both are put back afterwards.</li>
+ * </ul>
+ * The concrete index is {@code books_v<version>}, behind the {@code books} alias; migrating creates the index of the
+ * current {@link #VERSION}, reindexes into it and swaps the alias in one atomic step, so queries never see it half done.
+ */
+public final class BookSchema {
+
+    /**
+     * Goes up with every change of {@link #mapping()} or {@link #settings()} which needs a reindex.
+     */
+    public static final int VERSION = 2;
+    public static final String ALIAS = BookPartitions.ALIAS;
+
+    static final String VERSION_META = "schema_version";
+    static final String REFRESH_INTERVAL = "1s";
+    static final String BULK_LOAD_REFRESH_INTERVAL = "-1";
+    static final String BULK_LOAD_REPLICAS = "0";
+    static final Duration INITIAL_BACKOFF = Duration.ofMillis(100);
+    static final Duration MAX_BACKOFF = Duration.ofSeconds(5);
+
+    private BookSchema() {
+    }
+
+    public static TypeMapping mapping() {
+        return TypeMapping.of(mp -> mp
+            .meta(VERSION_META, JsonData.of(VERSION))
+            .properties("title", p -> p.text(t -> t))
+            .properties("description", p -> p.text(t -> t))
+            .properties("author", p -> p.keyword(k -> k
+                .fields("text", f -> f.text(t -> t))))
+            .properties("year", p -> p.short_(s -> s))
+            .properties("publisher", p -> p.text(t -> t))
+            .properties("ratings", p -> p.halfFloat(hf -> hf)));
+    }
+
+    public static IndexSettings settings() {
+        return IndexSettings.of(s -> s
+            .sort(so -> so.field("year").order(SegmentSortOrder.Asc))
+            .refreshInterval(t -> t.time(REFRESH_INTERVAL)));
+    }
+
+    static String indexOf(int version) {
+        return indexOf(ALIAS, version);
+    }
+
+    private static String indexOf(String alias, int version) {
+        return alias + "_v" + version;
+    }
+
+    /**
+     * Creates {@code index} with the current mapping and settings.
+     *
+     * @param meta added to the {@code _meta} of the mapping, e.g. to tell what the index was built from
+     */
+    public static void create(ElasticsearchClient esClient, String index, Map<String, JsonData> meta) throws IOException {
+        TypeMapping mapping = mapping();
+        Map<String, JsonData> allMeta = new HashMap<>(mapping.meta());
+        allMeta.putAll(meta);
+        esClient.indices().create(c -> c
+            .index(index)
+            .settings(settings())
+            .mappings(TypeMapping.of(m -> m
+                .properties(mapping.properties())
+                .meta(allMeta))));
+    }
+
+    /**
+     * @return the schema version of {@code index}, 1 when it predates the versioning, or 0 when there's no such index
+     */
+    public static int version(ElasticsearchClient esClient, String index) throws IOException {
+        IndexState state = esClient.indices().get(g -> g.index(index).ignoreUnavailable(true)).result().values().stream()
+            .findFirst()
+            .orElse(null);
+        if (state == null) {
+            return 0;
+        }
+        if (state.mappings() == null || !(state.mappings().meta().get(VERSION_META) instanceof JsonData version)) {
+            return 1;
+        }
+        return version.to(Integer.class);
+    }
+
+    /**
+     * Brings the books to the current version: creates the index when there's none, and otherwise reindexes
+     * the one behind the alias, or a plain {@code books} index from before the alias, into a new one.
+     * The old index is write blocked meanwhile, so nothing written during the copy gets lost; writes fail instead.
+     * The alias only moves once the copy has every document; when the copy or moving the alias fails, the new index
+     * is dropped, and the old one stays as it was, writable again. Partitioned books ({@link BookPartitions}) get the current schema from their index template,
+     * and aren't migrated here.
+     *
+     * @return the index now behind the alias
+     */
+    public static String migrate(ElasticsearchClient esClient) throws IOException {
+        return migrate(esClient, ALIAS);
+    }
+
+    static String migrate(ElasticsearchClient esClient, String alias) throws IOException {
+        return migrate(esClient, alias, Map.of());
+    }
+
+    /**
+     * @param meta added to the {@code _meta} of the new index, see {@link #create}
+     */
+    static String migrate(ElasticsearchClient esClient, String alias, Map<String, JsonData> meta) throws IOException {
+        String target = indexOf(alias, VERSION);
+        String current = current(esClient, alias);
+        if (target.equals(current)) {
+            return target;
+        }
+        // left over by a migration which didn't make it
+        esClient.indices().delete(d -> d.index(target).ignoreUnavailable(true));
+        create(esClient, target, meta);
+        boolean legacy = alias.equals(current);
+        if (current != null) {
+            block(esClient, current, true);
+        }
+        try {
+            if (current != null) {
+                // what was written before the block is only copied, and counted, once it's searchable
+                esClient.indices().refresh(r -> r.index(current));
+                copy(esClient, current, target);
+            }
+            swap(esClient, alias, current, target, legacy);
+        } catch (IOException | RuntimeException e) {
+            boolean swapped;
+            try {
+                // a swap whose response got lost may still have been made, and then the new index is all there is
+                swapped = esClient.indices().existsAlias(a -> a.name(alias).index(target)).value();
+            } catch (IOException | RuntimeException unknown) {
+                // can't tell, so nothing gets deleted; migrating again sorts it out
+                e.addSuppressed(unknown);
+                throw e;
+            }
+            if (!swapped) {
+                undo(esClient, current, target, e);
+                throw e;
+            }
+        }
+        if (current != null && !legacy) {
+            esClient.indices().delete(d -> d.index(current));
+        }
+        return target;
+    }
+
+    private static void swap(ElasticsearchClient esClient, String alias, String current, String target, boolean legacy) throws IOException {
+        esClient.indices().updateAliases(u -> {
+            u.actions(a -> a.add(add -> add.index(target).alias(alias)));
+            if (legacy) {
+                // an alias can't have the name of an index, so the old one goes in the same step
+                u.actions(a -> a.removeIndex(r -> r.index(current)));
+            } else if (current != null) {
+                u.actions(a -> a.remove(r -> r.index(current).alias(alias)));
+            }
+            return u;
+        });
+    }
+
+    // drops the new index and lets writes to the old one through again, as if the migration never started
+    private static void undo(ElasticsearchClient esClient, String current, String target, Exception failure) {
+        try {
+            esClient.indices().delete(d -> d.index(target).ignoreUnavailable(true));
+            if (current != null) {
+                block(esClient, current, false);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    // the index behind the alias, the plain index from before there was one, or null
+    private static String current(ElasticsearchClient esClient, String alias) throws IOException {
+        if (esClient.indices().existsAlias(a -> a.name(alias)).value()) {
+            Set<String> indices = esClient.indices().getAlias(a -> a.name(alias)).result().keySet();
+            List<String> versioned = indices.stream()
+                .filter(index -> index.startsWith(alias + "_v"))
+                .toList();
+            if (versioned.size() != 1 || indices.size() != 1) {
+                throw new IllegalStateException("Can only migrate a single index behind " + alias + ", not " + indices);
+            }
+            return versioned.getFirst();
+        }
+        return esClient.indices().exists(e -> e.index(alias)).value() ? alias : null;
+    }
+
+    private static void block(ElasticsearchClient esClient, String index, boolean write) throws IOException {
+        esClient.indices().putSettings(p -> p
+            .index(index)
+            .settings(s -> s.blocks(b -> b.write(write))));
+    }
+
+    /**
+     * Reindexes {@code source} into {@code target} as a task, which is polled rather than waited for in one request,
+     * so a large index doesn't run into the socket timeout; fails unless {@code target} ends up with every document.
+     */
+    private static void copy(ElasticsearchClient esClient, String source, String target) throws IOException {
+        BulkLoad load = bulkLoad(esClient, target);
+        ReindexResponse reindexed;
+        try {
+            String task = esClient.reindex(r -> r
+                .source(s -> s.index(source))
+                .dest(d -> d.index(target))
+                .waitForCompletion(false)).task();
+            reindexed = await(esClient, task);
+        } finally {
+            load.close();
+        }
+        if (Boolean.TRUE.equals(reindexed.timedOut()) || !reindexed.failures().isEmpty()) {
+            throw new IllegalStateException("Reindexing " + source + " into " + target + " failed: " + reindexed);
+        }
+        esClient.indices().refresh(r -> r.index(target));
+        long expected = esClient.count(c -> c.index(source)).count();
+        long copied = esClient.count(c -> c.index(target)).count();
+        if (copied != expected || reindexed.created() == null || reindexed.created() != expected) {
+            throw new IllegalStateException("Reindexing " + source + " into " + target + " copied " + copied
+                + " of " + expected + " documents: " + reindexed);
+        }
+    }
+
+    private static ReindexResponse await(ElasticsearchClient esClient, String task) throws IOException {
+        long backoffMillis = INITIAL_BACKOFF.toMillis();
+        while (true) {
+            GetTasksResponse status = esClient.tasks().get(t -> t.taskId(task));
+            if (status.completed()) {
+                if (status.error() != null) {
+                    throw new IllegalStateException("Reindexing failed: " + status.error().reason());
+                }
+                return status.response().to(ReindexResponse.class, esClient._jsonpMapper());
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                esClient.tasks().cancel(c -> c.taskId(task));
+                throw new IOException(e);
+            }
+            backoffMillis = Math.min(2 * backoffMillis, MAX_BACKOFF.toMillis());
+        }
+    }
+
+    /**
+     * Turns refreshes and replicas off on {@code index} until the returned handle is closed, which puts back
+     * what they were. Nothing is searchable meanwhile, but indexing doesn't pay for making it so, nor for sending
+     * every document to the replicas; they're recovered from the finished segments instead.
+     * Closing doesn't refresh, that's up to whatever loaded the documents, e.g. {@link BookIngester} does already.
+     */
+    public static BulkLoad bulkLoad(ElasticsearchClient esClient, String index) throws IOException {
+        IndexState state = esClient.indices().getSettings(g -> g.index(index)).result().values().iterator().next();
+        IndexSettings settings = state.settings().index() != null ? state.settings().index() : state.settings();
+        String replicas = settings.numberOfReplicas() != null ? settings.numberOfReplicas() : "1";
+        String refreshInterval = settings.refreshInterval() != null ? settings.refreshInterval().time() : REFRESH_INTERVAL;
+        esClient.indices().putSettings(p -> p
+            .index(index)
+            .settings(s -> s
+                .refreshInterval(t -> t.time(BULK_LOAD_REFRESH_INTERVAL))
+                .numberOfReplicas(BULK_LOAD_REPLICAS)));
+        return new BulkLoad(esClient, index, replicas, refreshInterval);
+    }
+
+    public record BulkLoad(ElasticsearchClient esClient, String index, String replicas, String refreshInterval) implements AutoCloseable {
+
+        @Override
+        public void close() throws IOException {
+            esClient.indices().putSettings(p -> p
+                .index(index)
+                .settings(s -> s
+                    .refreshInterval(t -> t.time(refreshInterval))
+                    .numberOfReplicas(replicas)));
+        }
+    }
+}
@@ -1,9 +1,8 @@
-
 package testing_elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.EsqlAdapter;
 import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
-import co.elastic.clients.elasticsearch._helpers.esql.objects.ObjectsEsqlAdapter;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.IOException;
@@ -11,81 +10,335 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 public class BookSearcher {
 
+    static final String VERSION_QUERY = """
+        show info
+        | keep version
+        | dissect version "%{major}.%{minor}.%{patch}"
+        | keep major, minor
+        | limit 1""";
+
+    static final String BOOKS_PUBLISHED_IN_YEAR_QUERY = """
+        from books
+        | where year == ?
+        | stats published = count(*)
+        | limit 1000""";
+
+    static final String BOOKS_PUBLISHED_IN_YEARS_QUERY = """
+        from books
+        | where year >= ? and year <= ?
+        | stats published = count(*) by year
+        | limit %d""";
+
+    static final String MOST_PUBLISHED_AUTHORS_LIMITED_QUERY = """
+        from books
+        | where year >= ? and year <= ?
+        | stats first_published = min(year), last_published = max(year), times = count (*) by author
+        | eval years_published = last_published - first_published
+        | sort years_published desc
+        | drop years_published
+        | limit %d
+        """;
+
+    static final String MOST_PUBLISHED_AUTHORS_QUERY = MOST_PUBLISHED_AUTHORS_LIMITED_QUERY.formatted(20);
+
+    // the largest result ES|QL returns by default; every year gets at most one row, so any range up to it fits
+    static final int MAX_YEARS = 10_000;
+
+    private static final PreparedEsqlQuery BOOKS_PUBLISHED_IN_YEAR_PREPARED =
+        new PreparedEsqlQuery(BOOKS_PUBLISHED_IN_YEAR_QUERY);
+    private static final PreparedEsqlQuery BOOKS_PUBLISHED_IN_YEARS_PREPARED =
+        new PreparedEsqlQuery(BOOKS_PUBLISHED_IN_YEARS_QUERY.formatted(MAX_YEARS));
+    private static final PreparedEsqlQuery MOST_PUBLISHED_AUTHORS_PREPARED =
+        new PreparedEsqlQuery(MOST_PUBLISHED_AUTHORS_QUERY);
+
+    static final String BOOKS_PUBLISHED_IN_YEAR = "books_published_in_year";
+    static final String BOOKS_PUBLISHED_IN_YEARS = "books_published_in_years";
+    static final String MOST_PUBLISHED_AUTHORS = "most_published_authors";
+    static final String MOST_PUBLISHED_AUTHORS_STREAMING = "most_published_authors_streaming";
+    static final String MOST_PUBLISHED_AUTHORS_ASYNC = "most_published_authors_async";
+
     private final ElasticsearchClient esClient;
+    private final QueryMetrics metrics;
+    private final BookPartitions partitions;
+    // one per combination of query and partitions, there are only so many of those
+    private final Map<String, PreparedEsqlQuery> partitionedQueries = new ConcurrentHashMap<>();
 
     public BookSearcher(ElasticsearchClient esClient) {
+        this(esClient, BackendVersionCache.shared());
+    }
+
+    public BookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache) {
+        this(esClient, versionCache, QueryMetrics.shared());
+    }
+
+    public BookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache, QueryMetrics metrics) {
+        this(esClient, versionCache, metrics, BookPartitions.NONE);
+    }
+
+    /**
+     * @param partitions when the books are partitioned, every query only goes to the partitions overlapping its years
+     */
+    public BookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache, QueryMetrics metrics, BookPartitions partitions) {
         this.esClient = esClient;
-        if (!isCompatibleWithBackend()) {
+        this.metrics = metrics;
+        this.partitions = partitions;
+        if (!isCompatibleWithBackend(versionCache)) {
             throw new UnsupportedOperationException("This is not compatible with backend");
         }
     }
 
-    private boolean isCompatibleWithBackend() {
-        try (ResultSet rs = esClient.esql().query(ResultSetEsqlAdapter.INSTANCE, """
-            show info
-            | keep version
-            | dissect version "%{major}.%{minor}.%{patch}"
-            | keep major, minor
-            | limit 1""")) {
+    /**
+     * For backends other than Elasticsearch, which override all the queries.
+     */
+    protected BookSearcher(QueryMetrics metrics) {
+        this.esClient = null;
+        this.metrics = metrics;
+        this.partitions = BookPartitions.NONE;
+    }
+
+    /**
+     * Opens up to {@code connections} pooled connections (including the TLS handshakes) and probes the backend,
+     * so the first real query doesn't pay for it. Meant to be called once, when the application starts.
+     */
+    public static BookSearcher warmUp(ElasticsearchClient esClient, int connections) {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> pings = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                pings.add(executor.submit(() -> esClient.ping()));
+            }
+            for (Future<?> ping : pings) {
+                ping.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return new BookSearcher(esClient);
+    }
+
+    private boolean isCompatibleWithBackend(BackendVersionCache versionCache) {
+        try {
+            BackendVersionCache.Version version = versionCache
+                .version(esClient, () -> CompletableFuture.completedFuture(probeVersion()))
+                .join();
+            return isCompatibleVersion(version);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private BackendVersionCache.Version probeVersion() {
+        try (ResultSet rs = esClient.esql().query(ResultSetEsqlAdapter.INSTANCE, VERSION_QUERY)) {
             if (!rs.next()) {
                 throw new RuntimeException("No version found");
             }
-            return rs.getInt(1) == 8 && rs.getInt(2) == 15;
-//            return rs.getInt("major") == 8 && rs.getInt("minor") == 15;
+            return new BackendVersionCache.Version(rs.getInt(1), rs.getInt(2));
+//            return new BackendVersionCache.Version(rs.getInt("major"), rs.getInt("minor"));
         } catch (SQLException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    static boolean isCompatibleVersion(BackendVersionCache.Version version) {
+        return version.major() == 8 && version.minor() == 15;
+    }
+
     public int numberOfBooksPublishedInYear(int year) {
-        try (ResultSet rs = esClient.esql().query(ResultSetEsqlAdapter.INSTANCE, """
-            from books
-            | where year == ?
-            | stats published = count(*)
-            | limit 1000""", year)) {
-
-            if (rs.next()) {
-                return rs.getInt("published");
-            }
-        } catch (SQLException | IOException e) {
-            throw new RuntimeException(e);
+        PreparedEsqlQuery query = prepared(BOOKS_PUBLISHED_IN_YEAR_PREPARED, year, year);
+        if (query == null) {
+            return 0;
         }
-        return 0;
+        int[] published = new int[1];
+        try {
+            query.query(
+                esClient,
+                measured(new RecordEsqlAdapter<>(Published.class, row -> published[0] = row.published()), BOOKS_PUBLISHED_IN_YEAR, Integer::longValue),
+                year);
+        } catch (IOException e) {
+            throw failed(BOOKS_PUBLISHED_IN_YEAR, e);
+        }
+        return published[0];
     }
 
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        checkYears(minYear, maxYear);
+        PreparedEsqlQuery query = prepared(BOOKS_PUBLISHED_IN_YEARS_PREPARED, minYear, maxYear);
+        if (query == null) {
+            return new YearHistogram(minYear, new int[maxYear - minYear + 1]);
+        }
+        // one query for the whole range instead of one per year
+        try {
+            return query.query(
+                esClient,
+                measured(new YearHistogram.Adapter(minYear, maxYear), BOOKS_PUBLISHED_IN_YEARS, YearHistogram::years),
+                minYear,
+                maxYear);
+        } catch (IOException e) {
+            throw failed(BOOKS_PUBLISHED_IN_YEARS, e);
+        }
+    }
 
     public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
         assert minYear <= maxYear;
-        String query = """
-            from books
-            | where year >= ? and year <= ?
-            | stats first_published = min(year), last_published = max(year), times = count (*) by author
-            | eval years_published = last_published - first_published
-            | sort years_published desc
-            | drop years_published
-            | limit 20
-            """;
-
+        List<MostPublished> mostPublishedAuthors = new ArrayList<>();
+        PreparedEsqlQuery query = prepared(MOST_PUBLISHED_AUTHORS_PREPARED, minYear, maxYear);
+        if (query == null) {
+            return mostPublishedAuthors;
+        }
         try {
-            Iterable<MostPublished> published = esClient.esql().query(
-                ObjectsEsqlAdapter.of(MostPublished.class),
-                query,
+            query.query(
+                esClient,
+                measured(new RecordEsqlAdapter<>(MostPublished.class, mostPublishedAuthors::add), MOST_PUBLISHED_AUTHORS, Integer::longValue),
                 minYear,
                 maxYear);
+        } catch (IOException e) {
+            throw failed(MOST_PUBLISHED_AUTHORS, e);
+        }
+        return mostPublishedAuthors;
+    }
 
-            List<MostPublished> mostPublishedAuthors = new ArrayList<>();
-            for (MostPublished mostPublished : published) {
-                mostPublishedAuthors.add(mostPublished);
-            }
-            return mostPublishedAuthors;
+    /**
+     * Streaming variant for large limits: every author is passed to the consumer as soon as it's decoded,
+     * and nothing else is kept.
+     *
+     * @return the number of authors passed to the consumer
+     */
+    public int mostPublishedAuthorsInYears(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        assert minYear <= maxYear;
+        assert limit > 0;
+        String query = partitions.rewrite(MOST_PUBLISHED_AUTHORS_LIMITED_QUERY.formatted(limit), minYear, maxYear);
+        if (query == null) {
+            return 0;
+        }
+        try {
+            // the limit is part of the query text, preparing it once per call is still cheaper than the mapper
+            return new PreparedEsqlQuery(query).query(
+                esClient,
+                measured(new RecordEsqlAdapter<>(MostPublished.class, consumer), MOST_PUBLISHED_AUTHORS_STREAMING, Integer::longValue),
+                minYear,
+                maxYear);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw failed(MOST_PUBLISHED_AUTHORS_STREAMING, e);
         }
     }
 
+    /**
+     * Runs the query with the ES|QL async query API, for ranges large enough that the aggregation takes a while:
+     * nothing waits for it on the client between the polls.
+     * The partial results of the handle are whatever the cluster returns while the query is still running.
+     */
+    public EsqlAsyncQuery<List<MostPublished>> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear) {
+        return mostPublishedAuthorsInYearsAsync(minYear, maxYear, EsqlAsyncQuery.Polling.DEFAULT);
+    }
+
+    public EsqlAsyncQuery<List<MostPublished>> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, EsqlAsyncQuery.Polling polling) {
+        assert minYear <= maxYear;
+        PreparedEsqlQuery query = prepared(MOST_PUBLISHED_AUTHORS_PREPARED, minYear, maxYear);
+        if (query == null) {
+            return EsqlAsyncQuery.completed(new ArrayList<>());
+        }
+        return measured(EsqlAsyncQuery.submit(
+            esClient,
+            query.body(minYear, maxYear),
+            () -> {
+                List<MostPublished> mostPublishedAuthors = new ArrayList<>();
+                return new RecordEsqlAdapter<>(MostPublished.class, mostPublishedAuthors::add).map(rows -> mostPublishedAuthors);
+            },
+            true,
+            polling), MOST_PUBLISHED_AUTHORS_ASYNC, List::size);
+    }
+
+    /**
+     * Streaming variant of the async query: the authors are passed to the consumer once the query is done,
+     * as they are decoded, and the handle completes with their number. There are no partial results.
+     */
+    public EsqlAsyncQuery<Integer> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        assert minYear <= maxYear;
+        assert limit > 0;
+        String query = partitions.rewrite(MOST_PUBLISHED_AUTHORS_LIMITED_QUERY.formatted(limit), minYear, maxYear);
+        if (query == null) {
+            return EsqlAsyncQuery.completed(0);
+        }
+        return measured(EsqlAsyncQuery.submit(
+            esClient,
+            new PreparedEsqlQuery(query).body(minYear, maxYear),
+            () -> new RecordEsqlAdapter<>(MostPublished.class, consumer),
+            false,
+            EsqlAsyncQuery.Polling.DEFAULT), MOST_PUBLISHED_AUTHORS_ASYNC, Integer::longValue);
+    }
+
+    /**
+     * Rejects year ranges with more years than a query returns rows, which would otherwise silently lose years.
+     */
+    static void checkYears(int minYear, int maxYear) {
+        if (maxYear - minYear >= MAX_YEARS) {
+            throw new IllegalArgumentException("At most " + MAX_YEARS + " years at once, not " + minYear + " to " + maxYear);
+        }
+    }
+
+    public QueryMetrics metrics() {
+        return metrics;
+    }
+
+    public BookPartitions partitions() {
+        return partitions;
+    }
+
+    /**
+     * @return {@code query} as it is when the books aren't partitioned, else for the partitions overlapping the years,
+     * or null when there are none, so the result is empty without asking
+     */
+    private PreparedEsqlQuery prepared(PreparedEsqlQuery query, int minYear, int maxYear) {
+        if (!partitions.partitioned()) {
+            return query;
+        }
+        String rewritten = partitions.rewrite(query.query(), minYear, maxYear);
+        return rewritten == null ? null : partitionedQueries.computeIfAbsent(rewritten, PreparedEsqlQuery::new);
+    }
+
+    private <T> EsqlAdapter<T> measured(EsqlAdapter<T> adapter, String queryType, ToLongFunction<T> rows) {
+        return new MeasuredAdapter<>(adapter, queryType, metrics, rows);
+    }
+
+    // the request time of an async query is from submitting it until it's done, polls included
+    private <T> EsqlAsyncQuery<T> measured(EsqlAsyncQuery<T> query, String queryType, ToLongFunction<T> rows) {
+        long startedNanos = System.nanoTime();
+        QueryMetrics.QueryStats stats = metrics.query(queryType);
+        query.result().whenComplete((result, e) -> {
+            if (e == null) {
+                stats.request.record(System.nanoTime() - startedNanos);
+                stats.rows.add(rows.applyAsLong(result));
+            } else if (!query.result().isCancelled()) {
+                stats.failures.increment();
+            }
+        });
+        return query;
+    }
+
+    private RuntimeException failed(String queryType, Exception e) {
+        metrics.query(queryType).failures.increment();
+        return new RuntimeException(e);
+    }
+
+    record Published(int published) {
+    }
+
     public record MostPublished(
         String author,
         @JsonProperty("first_published") int firstPublished,
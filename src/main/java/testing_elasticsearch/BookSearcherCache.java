@@ -0,0 +1,113 @@
+package testing_elasticsearch;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Results of {@link BookSearcher} queries, keyed by the query and its parameters, within a scope:
+ * the cluster and the layout of the books, so searchers of different ones can share a cache without
+ * answering each other's queries.
+ * Bounded both by the number of entries and by their estimated size in bytes; when either bound is exceeded
+ * the least recently used entries go first. Entries older than the TTL are never returned.
+ * Call {@link #invalidateAll()} whenever the data changes, e.g. from {@link BookIngester#withRefreshListener(Runnable)}.
+ */
+public class BookSearcherCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    // access ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<Scoped, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // goes up with every invalidation, so results of queries which were in flight meanwhile aren't kept
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BookSearcherCache(int maxEntries, long maxBytes, Duration ttl) {
+        assert maxEntries > 0 && maxBytes > 0;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Returns the cached result, or runs the query and caches its result.
+     * The query runs outside of the lock, so concurrent misses for the same key may each run it.
+     * When the cache got invalidated while the query ran, its result may predate the change, so it isn't kept.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Object scope, Key query, Supplier<T> run, ToLongFunction<T> weigher) {
+        Scoped key = new Scoped(scope, query);
+        long now = System.nanoTime();
+        long queriedGeneration;
+        synchronized (this) {
+            queriedGeneration = generation;
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.expiresAtNanos < 0) {
+                hits.increment();
+                return (T) entry.value;
+            }
+            if (entry != null) {
+                remove(key, entry);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        T value = run.get();
+        put(key, new Entry(value, weigher.applyAsLong(value), System.nanoTime() + ttlNanos), queriedGeneration);
+        return value;
+    }
+
+    private synchronized void put(Scoped key, Entry entry, long queriedGeneration) {
+        if (generation != queriedGeneration) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Map.Entry<Scoped, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(Scoped key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+    }
+
+    record Key(String query, int first, int second) {
+    }
+
+    private record Scoped(Object scope, Key key) {
+    }
+
+    private record Entry(Object value, long bytes, long expiresAtNanos) {
+    }
+
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+    }
+}
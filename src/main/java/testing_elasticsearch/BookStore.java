@@ -0,0 +1,261 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * In-memory, column-oriented copy of the books, holding only what the hot queries need: the year of every book
+ * in a {@code short[]}, and its author as an index into a dictionary of distinct authors, in an {@code int[]}.
+ * Queries scan the columns in parallel, on the common fork-join pool. Immutable once built.
+ */
+public final class BookStore {
+
+    // below this many rows, splitting the scan costs more than it saves
+    static final int SCAN_THRESHOLD = 16 * 1024;
+    static final int NO_AUTHOR = -1;
+
+    private final short[] years;
+    private final int[] authors;
+    private final String[] dictionary;
+    private final int size;
+
+    private BookStore(short[] years, int[] authors, String[] dictionary, int size) {
+        this.years = years;
+        this.authors = authors;
+        this.dictionary = dictionary;
+        this.size = size;
+    }
+
+    /**
+     * Loads the books from the same data as {@link BookIngester#ingest}; malformed rows are skipped in the same way.
+     */
+    public static BookStore load(MappingIterator<Book> books) throws IOException {
+        Builder builder = new Builder();
+        while (true) {
+            Book book;
+            try {
+                // reading ahead to the next value parses it as well, so it can fail just the same
+                if (!books.hasNextValue()) {
+                    break;
+                }
+                book = books.nextValue();
+            } catch (JsonProcessingException e) {
+                // skipped, like when indexing
+                continue;
+            }
+            builder.add(book);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int authors() {
+        return dictionary.length;
+    }
+
+    public int countInYear(int year) {
+        return ForkJoinPool.commonPool().invoke(new CountInYear(0, size, year));
+    }
+
+    /**
+     * Books per year, from {@code counts[0]} for {@code minYear} to {@code counts[maxYear - minYear]}.
+     */
+    public int[] countsPerYear(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        return ForkJoinPool.commonPool().invoke(new CountsPerYear(0, size, minYear, maxYear));
+    }
+
+    /**
+     * Per author, indexed like {@link #author(int)}: the first and last years it published in the range,
+     * and how many books. Authors without books in the range have a count of 0.
+     */
+    public AuthorStats authorStats(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        // every part of the scan has arrays as long as the dictionary, and each merge walks them,
+        // so there are only about as many parts as threads, rather than one per SCAN_THRESHOLD rows
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int partSize = Math.max(SCAN_THRESHOLD, Math.ceilDiv(size, pool.getParallelism()));
+        return pool.invoke(new AuthorStatsScan(0, size, partSize, minYear, maxYear));
+    }
+
+    public String author(int id) {
+        return dictionary[id];
+    }
+
+    public record AuthorStats(int[] first, int[] last, int[] count) {
+
+        void merge(AuthorStats other) {
+            for (int author = 0; author < count.length; author++) {
+                if (other.count[author] == 0) {
+                    continue;
+                }
+                if (count[author] == 0) {
+                    first[author] = other.first[author];
+                    last[author] = other.last[author];
+                } else {
+                    first[author] = Math.min(first[author], other.first[author]);
+                    last[author] = Math.max(last[author], other.last[author]);
+                }
+                count[author] += other.count[author];
+            }
+        }
+    }
+
+    /**
+     * Collects the books one by one, e.g. alongside a bulk ingestion; not thread-safe.
+     */
+    public static final class Builder {
+
+        private short[] years = new short[1024];
+        private int[] authors = new int[1024];
+        private final Map<String, Integer> ids = new HashMap<>();
+        private int size;
+
+        public Builder add(Book book) {
+            if (size == years.length) {
+                years = Arrays.copyOf(years, size * 2);
+                authors = Arrays.copyOf(authors, size * 2);
+            }
+            assert book.year() >= Short.MIN_VALUE && book.year() <= Short.MAX_VALUE;
+            years[size] = (short) book.year();
+            authors[size] = book.author() == null ? NO_AUTHOR : ids.computeIfAbsent(book.author(), author -> ids.size());
+            size++;
+            return this;
+        }
+
+        public BookStore build() {
+            String[] dictionary = new String[ids.size()];
+            ids.forEach((author, id) -> dictionary[id] = author);
+            return new BookStore(Arrays.copyOf(years, size), Arrays.copyOf(authors, size), dictionary, size);
+        }
+    }
+
+    // the tasks are never serialized, like the store they scan
+    @SuppressWarnings("serial")
+    private final class CountInYear extends RecursiveTask<Integer> {
+
+        private final int from;
+        private final int to;
+        private final int year;
+
+        CountInYear(int from, int to, int year) {
+            this.from = from;
+            this.to = to;
+            this.year = year;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from > SCAN_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                CountInYear left = new CountInYear(from, middle, year);
+                left.fork();
+                return new CountInYear(middle, to, year).compute() + left.join();
+            }
+            int count = 0;
+            for (int row = from; row < to; row++) {
+                if (years[row] == year) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class CountsPerYear extends RecursiveTask<int[]> {
+
+        private final int from;
+        private final int to;
+        private final int minYear;
+        private final int maxYear;
+
+        CountsPerYear(int from, int to, int minYear, int maxYear) {
+            this.from = from;
+            this.to = to;
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > SCAN_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                CountsPerYear left = new CountsPerYear(from, middle, minYear, maxYear);
+                left.fork();
+                int[] counts = new CountsPerYear(middle, to, minYear, maxYear).compute();
+                int[] leftCounts = left.join();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += leftCounts[i];
+                }
+                return counts;
+            }
+            int[] counts = new int[maxYear - minYear + 1];
+            for (int row = from; row < to; row++) {
+                int year = years[row];
+                if (year >= minYear && year <= maxYear) {
+                    counts[year - minYear]++;
+                }
+            }
+            return counts;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class AuthorStatsScan extends RecursiveTask<AuthorStats> {
+
+        private final int from;
+        private final int to;
+        private final int partSize;
+        private final int minYear;
+        private final int maxYear;
+
+        AuthorStatsScan(int from, int to, int partSize, int minYear, int maxYear) {
+            this.from = from;
+            this.to = to;
+            this.partSize = partSize;
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+        }
+
+        @Override
+        protected AuthorStats compute() {
+            if (to - from > partSize) {
+                int middle = (from + to) >>> 1;
+                AuthorStatsScan left = new AuthorStatsScan(from, middle, partSize, minYear, maxYear);
+                left.fork();
+                AuthorStats stats = new AuthorStatsScan(middle, to, partSize, minYear, maxYear).compute();
+                stats.merge(left.join());
+                return stats;
+            }
+            int authorCount = dictionary.length;
+            AuthorStats stats = new AuthorStats(new int[authorCount], new int[authorCount], new int[authorCount]);
+            for (int row = from; row < to; row++) {
+                int year = years[row];
+                int author = authors[row];
+                if (year < minYear || year > maxYear || author == NO_AUTHOR) {
+                    continue;
+                }
+                if (stats.count[author]++ == 0) {
+                    stats.first[author] = year;
+                    stats.last[author] = year;
+                } else if (year < stats.first[author]) {
+                    stats.first[author] = year;
+                } else if (year > stats.last[author]) {
+                    stats.last[author] = year;
+                }
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package testing_elasticsearch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for request and response bodies, which the transports hand around as {@link ByteBuffer}s.
+ */
+final class ByteBuffers {
+
+    private ByteBuffers() {
+    }
+
+    /**
+     * @return the remaining bytes of all the buffers, one after the other, leaving the buffers as they were
+     */
+    static byte[] bytesOf(Iterable<ByteBuffer> buffers) {
+        if (buffers == null) {
+            return new byte[0];
+        }
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            int remaining = buffer.remaining();
+            buffer.get(buffer.position(), bytes, offset, remaining);
+            offset += remaining;
+        }
+        return bytes;
+    }
+}
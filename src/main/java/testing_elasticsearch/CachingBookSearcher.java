@@ -0,0 +1,72 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.util.List;
+
+/**
+ * {@link BookSearcher} which answers repeated queries from a {@link BookSearcherCache}.
+ * The same cache may be shared by many searchers; results are scoped to the cluster and the partitions they came from.
+ */
+public class CachingBookSearcher extends BookSearcher {
+
+    // rough sizes of what we keep, good enough for bounding the memory
+    private static final long OBJECT_BYTES = 16;
+    private static final long REFERENCE_BYTES = 8;
+
+    private final ElasticsearchClient esClient;
+    private final BookSearcherCache cache;
+
+    public CachingBookSearcher(ElasticsearchClient esClient, BookSearcherCache cache) {
+        super(esClient);
+        this.esClient = esClient;
+        this.cache = cache;
+    }
+
+    public CachingBookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache, QueryMetrics metrics,
+                               BookPartitions partitions, BookSearcherCache cache) {
+        super(esClient, versionCache, metrics, partitions);
+        this.esClient = esClient;
+        this.cache = cache;
+    }
+
+    @Override
+    public int numberOfBooksPublishedInYear(int year) {
+        return cache.get(
+            scope(),
+            new BookSearcherCache.Key(BOOKS_PUBLISHED_IN_YEAR_QUERY, year, year),
+            () -> super.numberOfBooksPublishedInYear(year),
+            published -> OBJECT_BYTES);
+    }
+
+    @Override
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        return cache.get(
+            scope(),
+            new BookSearcherCache.Key(BOOKS_PUBLISHED_IN_YEARS_QUERY, minYear, maxYear),
+            () -> super.numberOfBooksPublishedInYears(minYear, maxYear),
+            histogram -> 2 * OBJECT_BYTES + Integer.BYTES * (long) (maxYear - minYear + 1));
+    }
+
+    @Override
+    public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        return cache.get(
+            scope(),
+            new BookSearcherCache.Key(MOST_PUBLISHED_AUTHORS_QUERY, minYear, maxYear),
+            () -> List.copyOf(super.mostPublishedAuthorsInYears(minYear, maxYear)),
+            CachingBookSearcher::weigh);
+    }
+
+    // worked out on every query, as the nodes of the cluster may change, e.g. when sniffing
+    private Object scope() {
+        return List.of(BackendVersionCache.keyOf(esClient), partitions());
+    }
+
+    private static long weigh(List<MostPublished> mostPublished) {
+        long bytes = OBJECT_BYTES;
+        for (MostPublished published : mostPublished) {
+            bytes += REFERENCE_BYTES + 2 * OBJECT_BYTES + 3 * Integer.BYTES + 2L * published.author().length();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,94 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * {@link BookSearcher} which sends identical concurrent queries only once: while a query with the same text and
+ * parameters is in flight, later callers wait for its result instead of sending their own request.
+ * It wraps another searcher, e.g. a partitioned or a {@link CachingBookSearcher}, which answers the queries.
+ * Nothing is kept once the query completes, so unlike {@link CachingBookSearcher} results are never stale.
+ * <p>
+ * The in-flight queries are tracked in a {@link ConcurrentHashMap}, whose bins are updated with CAS or a per-bin
+ * lock, so callers of different queries don't contend with each other, and callers of the same query only
+ * while attaching.
+ */
+public class CoalescingBookSearcher extends ForwardingBookSearcher {
+
+    private final ConcurrentHashMap<BookSearcherCache.Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public CoalescingBookSearcher(ElasticsearchClient esClient) {
+        this(new BookSearcher(esClient));
+    }
+
+    public CoalescingBookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache, QueryMetrics metrics) {
+        this(new BookSearcher(esClient, versionCache, metrics));
+    }
+
+    /**
+     * @param searcher sends the queries which aren't already in flight; coalesced ones are counted in its metrics
+     */
+    public CoalescingBookSearcher(BookSearcher searcher) {
+        super(searcher);
+    }
+
+    @Override
+    public int numberOfBooksPublishedInYear(int year) {
+        return coalesce(
+            new BookSearcherCache.Key(BOOKS_PUBLISHED_IN_YEAR_QUERY, year, year),
+            BOOKS_PUBLISHED_IN_YEAR,
+            () -> super.numberOfBooksPublishedInYear(year));
+    }
+
+    /**
+     * The histogram is shared by every caller of the coalesced query, which is fine as it can't be modified.
+     */
+    @Override
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        return coalesce(
+            new BookSearcherCache.Key(BOOKS_PUBLISHED_IN_YEARS_QUERY, minYear, maxYear),
+            BOOKS_PUBLISHED_IN_YEARS,
+            () -> super.numberOfBooksPublishedInYears(minYear, maxYear));
+    }
+
+    /**
+     * The list is shared by every caller of the coalesced query, so it's unmodifiable.
+     */
+    @Override
+    public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        return coalesce(
+            new BookSearcherCache.Key(MOST_PUBLISHED_AUTHORS_QUERY, minYear, maxYear),
+            MOST_PUBLISHED_AUTHORS,
+            () -> List.copyOf(super.mostPublishedAuthorsInYears(minYear, maxYear)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(BookSearcherCache.Key key, String queryType, Supplier<T> query) {
+        CompletableFuture<Object> placeholder = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, placeholder);
+        if (running != null) {
+            metrics().query(queryType).coalesced.increment();
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            T result = query.get();
+            // removed before completing, so nobody attaches to a query whose result has already been handed out
+            inFlight.remove(key, placeholder);
+            placeholder.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, placeholder);
+            placeholder.completeExceptionally(e);
+            throw e;
+        }
+    }
+}
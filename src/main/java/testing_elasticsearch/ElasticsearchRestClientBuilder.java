@@ -6,25 +6,53 @@ import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHeader;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 
 import javax.net.ssl.SSLContext;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 
 public class ElasticsearchRestClientBuilder {
 
-    private HttpHost httpHost;
+    private List<HttpHost> httpHosts;
     private SSLContext sslContext;
     private UsernamePasswordCredentials credentials;
     private BasicHeader authHeader;
+    private NodeSelector nodeSelector;
+    private Integer maxConnectionsPerRoute;
+    private Integer maxConnectionsTotal;
+    private Integer ioThreads;
+    private Duration connectTimeout;
+    private Duration socketTimeout;
+    private Duration keepAlive;
+    private boolean compression;
+    private Duration sniffInterval;
+    private SniffOnFailureListener sniffOnFailureListener;
+    private RestClient sniffedClient;
+    private QueryMetrics metrics;
+    private LatencyAwareNodeSelector latencyAwareNodeSelector;
 
     public ElasticsearchRestClientBuilder withHttpHost(String host) {
-        this.httpHost = new HttpHost(host);
-        return this;
+        return withHttpHost(new HttpHost(host));
     }
 
     public ElasticsearchRestClientBuilder withHttpHost(HttpHost host) {
-        this.httpHost = host;
+        return withHttpHosts(host);
+    }
+
+    /**
+     * Requests are spread over all the given hosts, round-robin, skipping the ones that recently failed.
+     */
+    public ElasticsearchRestClientBuilder withHttpHosts(HttpHost... hosts) {
+        assert hosts.length > 0;
+        this.httpHosts = List.of(hosts);
         return this;
     }
 
@@ -43,27 +71,184 @@ public class ElasticsearchRestClientBuilder {
         return this;
     }
 
-    public RestClient build() {
-        org.elasticsearch.client.RestClientBuilder builder = RestClient.builder(httpHost);
-        if (sslContext != null || credentials != null) {
+    /**
+     * E.g. {@link NodeSelector#SKIP_DEDICATED_MASTERS}, so that searches are coordinated by data nodes only.
+     */
+    public ElasticsearchRestClientBuilder withNodeSelector(NodeSelector nodeSelector) {
+        this.nodeSelector = nodeSelector;
+        return this;
+    }
+
+    public ElasticsearchRestClientBuilder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        assert maxConnectionsPerRoute > 0;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    public ElasticsearchRestClientBuilder withMaxConnectionsTotal(int maxConnectionsTotal) {
+        assert maxConnectionsTotal > 0;
+        this.maxConnectionsTotal = maxConnectionsTotal;
+        return this;
+    }
+
+    public ElasticsearchRestClientBuilder withIoThreads(int ioThreads) {
+        assert ioThreads > 0;
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public ElasticsearchRestClientBuilder withConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public ElasticsearchRestClientBuilder withSocketTimeout(Duration socketTimeout) {
+        this.socketTimeout = socketTimeout;
+        return this;
+    }
 
-            builder.setHttpClientConfigCallback(
-                httpClientBuilder -> {
-                    if (sslContext != null) {
-                        httpClientBuilder.setSSLContext(sslContext);
+    /**
+     * How long idle pooled connections are kept, regardless of what the server suggests.
+     */
+    public ElasticsearchRestClientBuilder withKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Gzip the request bodies and ask for gzipped responses.
+     */
+    public ElasticsearchRestClientBuilder withCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Discover the nodes of the cluster every {@code interval}, and right after a node fails.
+     * The sniffer itself has to be created with {@link #buildSniffer(RestClient)}, for the one client built;
+     * the discovered nodes get the scheme of the given hosts, so all of them need the same one.
+     */
+    public ElasticsearchRestClientBuilder withSniffing(Duration interval) {
+        this.sniffInterval = interval;
+        return this;
+    }
+
+    /**
+     * Time every HTTP exchange per endpoint, and emit a {@link HttpExchangeEvent} for it when JFR is recording.
+     */
+    public ElasticsearchRestClientBuilder withMetrics(QueryMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Prefer the nodes which respond fastest, as measured by the given selector on every response.
+     * Applied after the {@link #withNodeSelector node selector}, if there's one.
+     * Pass the same selector to a {@link HedgingTransport} to hedge ES|QL queries on another node.
+     */
+    public ElasticsearchRestClientBuilder withLatencyAwareNodeSelection(LatencyAwareNodeSelector selector) {
+        this.latencyAwareNodeSelector = selector;
+        return this;
+    }
+
+    public RestClient build() {
+        if (sniffedClient != null) {
+            throw new IllegalStateException("A sniffing client can only be built once, its sniffer goes with it");
+        }
+        org.elasticsearch.client.RestClientBuilder builder = RestClient.builder(httpHosts.toArray(HttpHost[]::new));
+        builder.setHttpClientConfigCallback(
+            httpClientBuilder -> {
+                if (sslContext != null) {
+                    httpClientBuilder.setSSLContext(sslContext);
+                }
+                if (credentials != null) {
+                    final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                    credentialsProvider.setCredentials(AuthScope.ANY, credentials);
+                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+                }
+                if (maxConnectionsPerRoute != null) {
+                    httpClientBuilder.setMaxConnPerRoute(maxConnectionsPerRoute);
+                }
+                if (maxConnectionsTotal != null) {
+                    httpClientBuilder.setMaxConnTotal(maxConnectionsTotal);
+                }
+                if (ioThreads != null) {
+                    httpClientBuilder.setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreads).build());
+                }
+                if (keepAlive != null) {
+                    httpClientBuilder.setKeepAliveStrategy((response, context) -> keepAlive.toMillis());
+                }
+                if (metrics != null) {
+                    httpClientBuilder.addInterceptorLast(HttpExchangeTimer.requestInterceptor());
+                    httpClientBuilder.addInterceptorFirst(HttpExchangeTimer.responseInterceptor(metrics));
+                }
+                if (latencyAwareNodeSelector != null) {
+                    httpClientBuilder.addInterceptorLast(latencyAwareNodeSelector.requestInterceptor());
+                    httpClientBuilder.addInterceptorFirst(latencyAwareNodeSelector.responseInterceptor());
+                }
+                return httpClientBuilder;
+            }
+        );
+        if (connectTimeout != null || socketTimeout != null) {
+            builder.setRequestConfigCallback(
+                requestConfigBuilder -> {
+                    if (connectTimeout != null) {
+                        requestConfigBuilder.setConnectTimeout((int) connectTimeout.toMillis());
                     }
-                    if (credentials != null) {
-                        final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-                        credentialsProvider.setCredentials(AuthScope.ANY, credentials);
-                        httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+                    if (socketTimeout != null) {
+                        requestConfigBuilder.setSocketTimeout((int) socketTimeout.toMillis());
                     }
-                    return httpClientBuilder;
+                    return requestConfigBuilder;
                 }
             );
         }
         if (authHeader != null) {
             builder.setDefaultHeaders(new Header[]{authHeader});
         }
+        if (nodeSelector != null && latencyAwareNodeSelector != null) {
+            builder.setNodeSelector(nodes -> {
+                nodeSelector.select(nodes);
+                latencyAwareNodeSelector.select(nodes);
+            });
+        } else if (nodeSelector != null) {
+            builder.setNodeSelector(nodeSelector);
+        } else if (latencyAwareNodeSelector != null) {
+            builder.setNodeSelector(latencyAwareNodeSelector);
+        }
+        builder.setCompressionEnabled(compression);
+        if (sniffInterval != null) {
+            sniffOnFailureListener = new SniffOnFailureListener();
+            builder.setFailureListener(sniffOnFailureListener);
+            sniffedClient = builder.build();
+            return sniffedClient;
+        }
         return builder.build();
     }
+
+    /**
+     * Please close the sniffer before closing the client.
+     */
+    public Sniffer buildSniffer(RestClient restClient) {
+        if (sniffOnFailureListener == null) {
+            throw new IllegalStateException("Sniffing needs to be enabled before building the client");
+        }
+        if (restClient != sniffedClient) {
+            throw new IllegalStateException("The sniffer has to be built for the client built with sniffing");
+        }
+        // by default, the sniffed nodes would all be http ones
+        Sniffer sniffer = Sniffer.builder(restClient)
+            .setSniffIntervalMillis((int) sniffInterval.toMillis())
+            .setNodesSniffer(new ElasticsearchNodesSniffer(restClient, ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme()))
+            .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
+    ElasticsearchNodesSniffer.Scheme scheme() {
+        String scheme = httpHosts.getFirst().getSchemeName();
+        if (httpHosts.stream().anyMatch(host -> !host.getSchemeName().equals(scheme))) {
+            throw new IllegalStateException("Sniffing needs all the hosts to have the same scheme: " + httpHosts);
+        }
+        return ElasticsearchNodesSniffer.Scheme.valueOf(scheme.toUpperCase(Locale.ROOT));
+    }
 }
@@ -0,0 +1,289 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.endpoints.BinaryEndpoint;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import co.elastic.clients.transport.endpoints.EndpointBase;
+import co.elastic.clients.util.BinaryData;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Handle of an ES|QL query run with the async query API: it's submitted, and if it isn't done within
+ * {@link Polling#waitForCompletion()}, polled with exponential backoff until it is.
+ * No thread and no pooled connection is held between the polls, so long aggregations cost the client nothing
+ * while the cluster works on them.
+ * Callers can await the {@link #result()}, look at the latest {@link #partial()} result, or {@link #close()} the handle
+ * to give up. However the handle completes, a query the cluster kept is deleted there, rather than left until it expires.
+ */
+public final class EsqlAsyncQuery<T> implements AutoCloseable {
+
+    private static final Endpoint<BinaryData, BinaryResponse, ?> SUBMIT = new BinaryEndpoint<>(
+        "es/esql.async_query",
+        request -> "POST",
+        request -> "/_query/async",
+        EndpointBase.emptyMap(),
+        request -> Map.of("format", "json"),
+        EndpointBase.emptyMap(),
+        true,
+        null);
+
+    private static final Endpoint<Poll, BinaryResponse, ?> GET = new BinaryEndpoint<>(
+        "es/esql.async_query_get",
+        request -> "GET",
+        request -> "/_query/async/" + request.id(),
+        EndpointBase.emptyMap(),
+        request -> Map.of("wait_for_completion_timeout", request.waitForCompletion(), "keep_alive", request.keepAlive()),
+        EndpointBase.emptyMap(),
+        false,
+        null);
+
+    private static final Endpoint<String, BinaryResponse, ?> DELETE = new BinaryEndpoint<>(
+        "es/esql.async_query_delete",
+        request -> "DELETE",
+        request -> "/_query/async/" + request,
+        EndpointBase.emptyMap(),
+        EndpointBase.emptyMap(),
+        EndpointBase.emptyMap(),
+        false,
+        null);
+
+    private final ElasticsearchClient esClient;
+    private final Supplier<? extends StreamingEsqlAdapter<T>> adapters;
+    private final boolean partialResults;
+    private final Polling polling;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile String id;
+    private volatile T partial;
+    private volatile CompletableFuture<BinaryResponse> inFlight;
+    private long backoffNanos;
+
+    private EsqlAsyncQuery(ElasticsearchClient esClient, Supplier<? extends StreamingEsqlAdapter<T>> adapters, boolean partialResults, Polling polling) {
+        this.esClient = esClient;
+        this.adapters = adapters;
+        this.partialResults = partialResults;
+        this.polling = polling;
+        this.backoffNanos = polling.initialBackoff().toNanos();
+        result.whenComplete((r, e) -> abandon());
+    }
+
+    /**
+     * Submits the query, whose request body is {@code body}, e.g. from {@link PreparedEsqlQuery#body(int...)}.
+     *
+     * @param adapters       a new adapter for every response which has values
+     * @param partialResults whether to decode the values of responses while the query is still running;
+     *                       adapters which pass rows on rather than collecting them would see them more than once
+     */
+    static <T> EsqlAsyncQuery<T> submit(ElasticsearchClient esClient, byte[] body, Supplier<? extends StreamingEsqlAdapter<T>> adapters,
+                                        boolean partialResults, Polling polling) {
+        EsqlAsyncQuery<T> query = new EsqlAsyncQuery<>(esClient, adapters, partialResults, polling);
+        byte[] asyncBody = asyncBody(body, polling);
+        query.send(esClient._transport().performRequestAsync(
+            BinaryData.of(asyncBody, "application/json"), SUBMIT, esClient._transportOptions()));
+        return query;
+    }
+
+    /**
+     * @return a handle of a query which needn't be sent, because its result is known already
+     */
+    static <T> EsqlAsyncQuery<T> completed(T result) {
+        EsqlAsyncQuery<T> query = new EsqlAsyncQuery<>(null, null, false, Polling.DEFAULT);
+        query.result.complete(result);
+        return query;
+    }
+
+    /**
+     * The request body of a synchronous query, with the async parameters added. {@code keep_on_completion} only
+     * applies to a query done within {@code wait_for_completion_timeout}, which then isn't stored at all;
+     * one which outlasts it is stored until {@code keep_alive} expires, done or not, unless it's deleted.
+     */
+    static byte[] asyncBody(byte[] body, Polling polling) {
+        assert body[body.length - 1] == '}';
+        byte[] parameters = (",\"wait_for_completion_timeout\":\"" + millis(polling.waitForCompletion())
+            + "\",\"keep_alive\":\"" + millis(polling.keepAlive())
+            + "\",\"keep_on_completion\":false}").getBytes(StandardCharsets.UTF_8);
+        byte[] asyncBody = Arrays.copyOf(body, body.length - 1 + parameters.length);
+        System.arraycopy(parameters, 0, asyncBody, body.length - 1, parameters.length);
+        return asyncBody;
+    }
+
+    /**
+     * Completes with the final result, or exceptionally when the query failed or expired.
+     * Cancelling it is the same as {@link #close()}.
+     */
+    public CompletableFuture<T> result() {
+        return result;
+    }
+
+    public T await(Duration timeout) throws InterruptedException, TimeoutException {
+        try {
+            return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the result of the last response while the query was still running, if it had values,
+     * and the final result once there is one
+     */
+    public Optional<T> partial() {
+        if (result.isDone() && !result.isCompletedExceptionally()) {
+            return Optional.ofNullable(result.join());
+        }
+        return Optional.ofNullable(partial);
+    }
+
+    /**
+     * @return the id of the query on the cluster, or null when it hasn't responded yet, or completed within
+     * {@link Polling#waitForCompletion()} and so wasn't kept
+     */
+    public String id() {
+        return id;
+    }
+
+    public boolean isRunning() {
+        return !result.isDone();
+    }
+
+    /**
+     * Stops polling, and deletes the query on the cluster.
+     */
+    @Override
+    public void close() {
+        result.cancel(false);
+    }
+
+    private void send(CompletableFuture<BinaryResponse> request) {
+        inFlight = request;
+        if (result.isDone()) {
+            // completed since poll() looked, and abandon() may have missed this request
+            request.cancel(true);
+        }
+        request.whenComplete((response, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else if (result.isDone()) {
+                // closed while the request was in flight
+                closeQuietly(response);
+            } else {
+                receive(response);
+            }
+        });
+    }
+
+    private void receive(BinaryResponse response) {
+        StreamingEsqlAdapter<T> adapter = adapters.get();
+        if (!partialResults) {
+            adapter.skipValuesWhileRunning();
+        }
+        T value;
+        try {
+            value = adapter.deserialize(esClient.esql(), null, response);
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        if (adapter.asyncId() != null) {
+            id = adapter.asyncId();
+        }
+        if (!adapter.running()) {
+            result.complete(value);
+        } else if (id == null) {
+            result.completeExceptionally(new IOException("ES|QL async query is running, but has no id"));
+        } else {
+            if (value != null) {
+                partial = value;
+            }
+            long delay = backoffNanos;
+            backoffNanos = Math.min(backoffNanos * 2, polling.maxBackoff().toNanos());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(this::poll);
+        }
+    }
+
+    private void poll() {
+        if (result.isDone()) {
+            return;
+        }
+        Poll request = new Poll(id, millis(polling.pollWait()), millis(polling.keepAlive()));
+        send(esClient._transport().performRequestAsync(request, GET, esClient._transportOptions()));
+    }
+
+    // whichever way the handle completed, a query which has an id is stored on the cluster until it's deleted
+    private void abandon() {
+        CompletableFuture<BinaryResponse> request = inFlight;
+        if (request != null) {
+            request.cancel(true);
+        }
+        String stored = id;
+        if (stored != null) {
+            // best effort, the query expires after keep_alive anyway
+            esClient._transport().performRequestAsync(stored, DELETE, esClient._transportOptions())
+                .thenAccept(EsqlAsyncQuery::closeQuietly);
+        }
+    }
+
+    private static void closeQuietly(BinaryResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            // nothing was going to be read from it anyway
+        }
+    }
+
+    private static String millis(Duration duration) {
+        return duration.toMillis() + "ms";
+    }
+
+    private record Poll(String id, String waitForCompletion, String keepAlive) {
+    }
+
+    /**
+     * @param waitForCompletion how long the submit request waits for the query to complete, before returning its id
+     * @param pollWait          how long every poll waits for the query to complete; the connection is held meanwhile
+     * @param keepAlive         how long the cluster keeps the query after the last poll
+     * @param initialBackoff    delay before the first poll, doubled after every poll
+     * @param maxBackoff        the longest delay between two polls
+     */
+    public record Polling(Duration waitForCompletion, Duration pollWait, Duration keepAlive, Duration initialBackoff, Duration maxBackoff) {
+
+        public static final Polling DEFAULT = new Polling(
+            Duration.ofSeconds(1), Duration.ZERO, Duration.ofMinutes(5), Duration.ofMillis(100), Duration.ofSeconds(5));
+
+        public Polling {
+            assert !initialBackoff.isNegative() && initialBackoff.compareTo(maxBackoff) <= 0;
+        }
+
+        public Polling withWaitForCompletion(Duration waitForCompletion) {
+            return new Polling(waitForCompletion, pollWait, keepAlive, initialBackoff, maxBackoff);
+        }
+
+        public Polling withPollWait(Duration pollWait) {
+            return new Polling(waitForCompletion, pollWait, keepAlive, initialBackoff, maxBackoff);
+        }
+
+        public Polling withKeepAlive(Duration keepAlive) {
+            return new Polling(waitForCompletion, pollWait, keepAlive, initialBackoff, maxBackoff);
+        }
+
+        public Polling withInitialBackoff(Duration initialBackoff) {
+            return new Polling(waitForCompletion, pollWait, keepAlive, initialBackoff, maxBackoff);
+        }
+
+        public Polling withMaxBackoff(Duration maxBackoff) {
+            return new Polling(waitForCompletion, pollWait, keepAlive, initialBackoff, maxBackoff);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package testing_elasticsearch;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link BookSearcher} passing every query on to another one, for searchers which only add something around
+ * the queries, e.g. {@link CoalescingBookSearcher} and {@link LimitingBookSearcher}. Wrapping rather than extending
+ * lets them be stacked, on any searcher: partitioned, caching or in-memory alike.
+ */
+abstract class ForwardingBookSearcher extends BookSearcher {
+
+    private final BookSearcher delegate;
+
+    ForwardingBookSearcher(BookSearcher delegate) {
+        super(delegate.metrics());
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int numberOfBooksPublishedInYear(int year) {
+        return delegate.numberOfBooksPublishedInYear(year);
+    }
+
+    @Override
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        return delegate.numberOfBooksPublishedInYears(minYear, maxYear);
+    }
+
+    @Override
+    public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        return delegate.mostPublishedAuthorsInYears(minYear, maxYear);
+    }
+
+    @Override
+    public int mostPublishedAuthorsInYears(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        return delegate.mostPublishedAuthorsInYears(minYear, maxYear, limit, consumer);
+    }
+
+    @Override
+    public EsqlAsyncQuery<List<MostPublished>> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear) {
+        return delegate.mostPublishedAuthorsInYearsAsync(minYear, maxYear);
+    }
+
+    @Override
+    public EsqlAsyncQuery<List<MostPublished>> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, EsqlAsyncQuery.Polling polling) {
+        return delegate.mostPublishedAuthorsInYearsAsync(minYear, maxYear, polling);
+    }
+
+    @Override
+    public EsqlAsyncQuery<Integer> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        return delegate.mostPublishedAuthorsInYearsAsync(minYear, maxYear, limit, consumer);
+    }
+
+    @Override
+    public BookPartitions partitions() {
+        return delegate.partitions();
+    }
+}
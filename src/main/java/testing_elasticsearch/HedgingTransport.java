@@ -0,0 +1,289 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransportBase;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.rest_client.RestClientHttpClient;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport which hedges read-only ES|QL queries: when a query has no response after the policy's delay, it's sent
+ * once more, to another node, and the first response wins; the other request is aborted. Every other request
+ * is sent once, as usual.
+ * <p>
+ * The REST client has to be built with {@link ElasticsearchRestClientBuilder#withLatencyAwareNodeSelection}
+ * and the same selector, which picks the node of every attempt, and learns which nodes are slow.
+ */
+public class HedgingTransport extends ElasticsearchTransportBase {
+
+    /**
+     * ES|QL queries can't modify anything, so sending them twice is harmless.
+     */
+    static final Set<String> HEDGED_ENDPOINTS = Set.of("es/esql.query");
+
+    private final HedgingHttpClient hedgingClient;
+
+    private HedgingTransport(HedgingHttpClient httpClient, JsonpMapper jsonpMapper) {
+        super(httpClient, null, jsonpMapper);
+        this.hedgingClient = httpClient;
+    }
+
+    public HedgingTransport(RestClient restClient, JsonpMapper jsonpMapper, LatencyAwareNodeSelector selector, Policy policy) {
+        this(new HedgingHttpClient(new RestClientHttpClient(restClient), selector, policy), jsonpMapper);
+    }
+
+    /**
+     * How many queries were sent a second time.
+     */
+    public long hedged() {
+        return hedgingClient.hedged.sum();
+    }
+
+    /**
+     * How many queries were answered by their second request.
+     */
+    public long hedgeWins() {
+        return hedgingClient.hedgeWins.sum();
+    }
+
+    /**
+     * When to hedge: after the given percentile of the response times of the hedged queries so far, but not sooner
+     * than {@code minDelay}. Until there are {@code minSamples} of them, after {@code initialDelay}.
+     */
+    public record Policy(double percentile, Duration minDelay, Duration initialDelay, int minSamples) {
+
+        public static final Policy DEFAULT = new Policy(95, Duration.ofMillis(2), Duration.ofMillis(50), 100);
+
+        public Policy {
+            assert percentile > 0 && percentile <= 100;
+            assert minSamples >= 0;
+        }
+
+        public Policy withPercentile(double percentile) {
+            return new Policy(percentile, minDelay, initialDelay, minSamples);
+        }
+
+        public Policy withMinDelay(Duration minDelay) {
+            return new Policy(percentile, minDelay, initialDelay, minSamples);
+        }
+
+        public Policy withInitialDelay(Duration initialDelay) {
+            return new Policy(percentile, minDelay, initialDelay, minSamples);
+        }
+
+        public Policy withMinSamples(int minSamples) {
+            return new Policy(percentile, minDelay, initialDelay, minSamples);
+        }
+    }
+
+    private static final class HedgingHttpClient implements TransportHttpClient {
+
+        // the response times are kept in two windows of this many queries, so that the delay follows the cluster:
+        // it comes from the last full window, until the current one is full and takes over
+        private static final long WINDOW = 10_000;
+
+        private final TransportHttpClient delegate;
+        private final LatencyAwareNodeSelector selector;
+        private final Policy policy;
+        private volatile LatencyHistogram latencies = new LatencyHistogram();
+        private volatile LatencyHistogram previousLatencies;
+        private final LongAdder hedged = new LongAdder();
+        private final LongAdder hedgeWins = new LongAdder();
+
+        HedgingHttpClient(TransportHttpClient delegate, LatencyAwareNodeSelector selector, Policy policy) {
+            this.delegate = delegate;
+            this.selector = selector;
+            this.policy = policy;
+        }
+
+        @Override
+        public Response performRequest(String endpointId, Node node, Request request, TransportOptions options) throws IOException {
+            if (!HEDGED_ENDPOINTS.contains(endpointId)) {
+                return delegate.performRequest(endpointId, node, request, options);
+            }
+            CompletableFuture<Response> response = performRequestAsync(endpointId, node, request, options);
+            try {
+                return response.get();
+            } catch (InterruptedException e) {
+                response.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        public CompletableFuture<Response> performRequestAsync(String endpointId, Node node, Request request, TransportOptions options) {
+            if (!HEDGED_ENDPOINTS.contains(endpointId)) {
+                return delegate.performRequestAsync(endpointId, node, request, options);
+            }
+            return new Hedge(endpointId, request, options).start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        private long delayNanos() {
+            LatencyHistogram window = previousLatencies != null ? previousLatencies : latencies;
+            if (window.count() < Math.clamp(policy.minSamples(), 1, WINDOW)) {
+                return policy.initialDelay().toNanos();
+            }
+            return Math.max(window.percentile(policy.percentile()), policy.minDelay().toNanos());
+        }
+
+        private void record(long tookNanos) {
+            LatencyHistogram window = latencies;
+            window.record(tookNanos);
+            if (window.count() >= WINDOW) {
+                rotate(window);
+            }
+        }
+
+        private synchronized void rotate(LatencyHistogram full) {
+            if (latencies == full) {
+                previousLatencies = full;
+                latencies = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * One query, with its first request and maybe a second one. The query fails once all its requests did,
+         * which {@code pending} keeps track of: every request counts from before it's sent until it failed.
+         */
+        private final class Hedge {
+
+            final String endpointId;
+            final Request request;
+            final TransportOptions options;
+            final CompletableFuture<Response> result = new CompletableFuture<>();
+            final AtomicBoolean hedging = new AtomicBoolean();
+            final AtomicInteger pending = new AtomicInteger(1);
+            final long startedNanos = System.nanoTime();
+            volatile Attempt first;
+            volatile Attempt second;
+
+            Hedge(String endpointId, Request request, TransportOptions options) {
+                this.endpointId = endpointId;
+                this.request = request;
+                this.options = options;
+            }
+
+            CompletableFuture<Response> start() {
+                Attempt attempt = send(request, Set.of());
+                first = attempt;
+                CompletableFuture.delayedExecutor(delayNanos(), TimeUnit.NANOSECONDS).execute(this::hedge);
+                // aborts whatever is still in flight, when the caller gives up or when a response won
+                result.whenComplete((response, e) -> {
+                    abort(first);
+                    abort(second);
+                });
+                attempt.response.whenComplete((response, e) -> completed(attempt, response, e));
+                return result;
+            }
+
+            void hedge() {
+                if (result.isDone() || !hedging.compareAndSet(false, true)) {
+                    return;
+                }
+                pending.incrementAndGet();
+                // the body may be in a pooled buffer, which is reused once the query has its response; the copy
+                // is only kept when the query is still waiting after it's done, so it can't have been reused yet
+                Request copy = new Request(request.method(), request.path(), request.queryParams(), request.headers(),
+                    List.of(ByteBuffer.wrap(ByteBuffers.bytesOf(request.body()))));
+                if (result.isDone()) {
+                    return;
+                }
+                hedged.increment();
+                Attempt attempt = send(copy, first.host == null ? Set.of() : Set.of(first.host));
+                second = attempt;
+                attempt.response.whenComplete((response, e) -> completed(attempt, response, e));
+                if (result.isDone()) {
+                    abort(attempt);
+                }
+            }
+
+            Attempt send(Request request, Set<HttpHost> avoid) {
+                LatencyAwareNodeSelector.Selection selection = new LatencyAwareNodeSelector.Selection(avoid);
+                LatencyAwareNodeSelector.SELECTION.set(selection);
+                try {
+                    CompletableFuture<Response> response = delegate.performRequestAsync(endpointId, null, request, options);
+                    return new Attempt(selection.chosen, response);
+                } finally {
+                    LatencyAwareNodeSelector.SELECTION.remove();
+                }
+            }
+
+            void completed(Attempt attempt, Response response, Throwable e) {
+                if (e != null) {
+                    // a failed first request is hedged right away, rather than after the delay
+                    if (attempt == first) {
+                        hedge();
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                    return;
+                }
+                long tookNanos = System.nanoTime() - startedNanos;
+                if (attempt == second && !result.isDone() && first.host != null) {
+                    // the first node is at least that slow; recorded before completing, so that the next query
+                    // already avoids it
+                    selector.record(first.host, tookNanos);
+                }
+                // counted before completing as well, and taken back when the other attempt won after all
+                boolean hedgeWon = attempt == second;
+                if (hedgeWon) {
+                    hedgeWins.increment();
+                }
+                if (!result.complete(response)) {
+                    if (hedgeWon) {
+                        hedgeWins.decrement();
+                    }
+                    closeQuietly(response);
+                    return;
+                }
+                record(tookNanos);
+            }
+
+            void abort(Attempt attempt) {
+                if (attempt != null && !attempt.response.isDone()) {
+                    attempt.response.cancel(true);
+                }
+            }
+        }
+
+        private record Attempt(HttpHost host, CompletableFuture<Response> response) {
+        }
+
+        private static void closeQuietly(Response response) {
+            try {
+                response.close();
+            } catch (IOException e) {
+                // nobody's waiting for it anymore
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package testing_elasticsearch;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One HTTP exchange with Elasticsearch, from the HTTP client preparing the request until the response headers arrived.
+ */
+@Name("testing_elasticsearch.HttpExchange")
+@Label("Elasticsearch HTTP Exchange")
+@Category({"Elasticsearch", "HTTP"})
+@StackTrace(false)
+class HttpExchangeEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+
+    // transient fields aren't recorded
+    transient long startedNanos;
+}
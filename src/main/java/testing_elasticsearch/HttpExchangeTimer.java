@@ -0,0 +1,59 @@
+package testing_elasticsearch;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+
+/**
+ * Interceptors timing the HTTP exchanges of the REST client, from the HTTP client preparing the request
+ * until the response headers arrive. The exchanges are grouped by method and the first {@code _} path segment
+ * (e.g. {@code POST _query}), so that document ids don't make a group of their own.
+ */
+final class HttpExchangeTimer {
+
+    private static final String EVENT = HttpExchangeTimer.class.getName() + ".event";
+
+    private HttpExchangeTimer() {
+    }
+
+    static HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            HttpExchangeEvent event = new HttpExchangeEvent();
+            event.method = request.getRequestLine().getMethod();
+            event.path = endpointOf(request.getRequestLine().getUri());
+            event.startedNanos = System.nanoTime();
+            event.begin();
+            context.setAttribute(EVENT, event);
+        };
+    }
+
+    static HttpResponseInterceptor responseInterceptor(QueryMetrics metrics) {
+        return (response, context) -> {
+            if (!(context.getAttribute(EVENT) instanceof HttpExchangeEvent event)) {
+                return;
+            }
+            context.removeAttribute(EVENT);
+            event.end();
+            event.status = response.getStatusLine().getStatusCode();
+
+            QueryMetrics.HttpStats stats = metrics.http(event.method + " " + event.path);
+            stats.exchange.record(System.nanoTime() - event.startedNanos);
+            if (event.status == 429) {
+                stats.throttled.increment();
+            } else if (event.status >= 500) {
+                stats.errors.increment();
+            }
+            event.commit();
+        };
+    }
+
+    static String endpointOf(String uri) {
+        int end = uri.indexOf('?');
+        String path = end < 0 ? uri : uri.substring(0, end);
+        for (String segment : path.split("/")) {
+            if (segment.startsWith("_")) {
+                return segment;
+            }
+        }
+        return "/";
+    }
+}
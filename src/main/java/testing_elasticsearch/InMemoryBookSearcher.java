@@ -0,0 +1,105 @@
+package testing_elasticsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link BookSearcher} answering from a {@link BookStore} instead of Elasticsearch: no round-trip, and it keeps
+ * answering while the cluster is down. The results are the same as the cluster's, except for the order of authors
+ * who published over equally long periods, which is unspecified in both.
+ */
+public class InMemoryBookSearcher extends BookSearcher {
+
+    private final BookStore store;
+
+    public InMemoryBookSearcher(BookStore store) {
+        this(store, QueryMetrics.shared());
+    }
+
+    public InMemoryBookSearcher(BookStore store, QueryMetrics metrics) {
+        super(metrics);
+        this.store = store;
+    }
+
+    @Override
+    public int numberOfBooksPublishedInYear(int year) {
+        long started = System.nanoTime();
+        int count = store.countInYear(year);
+        measured(BOOKS_PUBLISHED_IN_YEAR, started, 1);
+        return count;
+    }
+
+    @Override
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        long started = System.nanoTime();
+        YearHistogram histogram = new YearHistogram(minYear, store.countsPerYear(minYear, maxYear));
+        measured(BOOKS_PUBLISHED_IN_YEARS, started, histogram.years());
+        return histogram;
+    }
+
+    @Override
+    public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        assert minYear <= maxYear;
+        List<MostPublished> mostPublished = new ArrayList<>();
+        mostPublishedAuthors(minYear, maxYear, 20, mostPublished::add, MOST_PUBLISHED_AUTHORS);
+        return mostPublished;
+    }
+
+    @Override
+    public int mostPublishedAuthorsInYears(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        assert minYear <= maxYear;
+        assert limit > 0;
+        return mostPublishedAuthors(minYear, maxYear, limit, consumer, MOST_PUBLISHED_AUTHORS_STREAMING);
+    }
+
+    /**
+     * Answered right away, so the handle is already complete; there's nothing to poll.
+     */
+    @Override
+    public EsqlAsyncQuery<List<MostPublished>> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, EsqlAsyncQuery.Polling polling) {
+        assert minYear <= maxYear;
+        List<MostPublished> mostPublished = new ArrayList<>();
+        mostPublishedAuthors(minYear, maxYear, 20, mostPublished::add, MOST_PUBLISHED_AUTHORS_ASYNC);
+        return EsqlAsyncQuery.completed(mostPublished);
+    }
+
+    @Override
+    public EsqlAsyncQuery<Integer> mostPublishedAuthorsInYearsAsync(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        assert minYear <= maxYear;
+        assert limit > 0;
+        return EsqlAsyncQuery.completed(mostPublishedAuthors(minYear, maxYear, limit, consumer, MOST_PUBLISHED_AUTHORS_ASYNC));
+    }
+
+    private int mostPublishedAuthors(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer, String queryType) {
+        long started = System.nanoTime();
+        BookStore.AuthorStats stats = store.authorStats(minYear, maxYear);
+
+        // sorted by years published, descending, then by author id, as one long each: no boxing, no comparator
+        long[] keys = new long[stats.count().length];
+        int authors = 0;
+        for (int author = 0; author < stats.count().length; author++) {
+            if (stats.count()[author] > 0) {
+                long yearsPublished = stats.last()[author] - stats.first()[author];
+                keys[authors++] = (Integer.MAX_VALUE - yearsPublished) << 32 | author;
+            }
+        }
+        Arrays.sort(keys, 0, authors);
+
+        int rows = Math.min(limit, authors);
+        for (int i = 0; i < rows; i++) {
+            int author = (int) keys[i];
+            consumer.accept(new MostPublished(store.author(author), stats.first()[author], stats.last()[author], stats.count()[author]));
+        }
+        measured(queryType, started, rows);
+        return rows;
+    }
+
+    private void measured(String queryType, long startedNanos, long rows) {
+        QueryMetrics.QueryStats stats = metrics().query(queryType);
+        stats.request.record(System.nanoTime() - startedNanos);
+        stats.rows.add(rows);
+    }
+}
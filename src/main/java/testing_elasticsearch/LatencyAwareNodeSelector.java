@@ -0,0 +1,215 @@
+package testing_elasticsearch;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node selector which avoids slow nodes: it keeps an exponentially weighted moving average of the response times
+ * of every node, and only lets the REST client pick among the nodes which aren't much slower than the fastest one.
+ * A node left out gets one request every {@code probeInterval} anyway, so that it's picked again once it recovers.
+ * <p>
+ * The averages are fed by the interceptors, which {@link ElasticsearchRestClientBuilder#withLatencyAwareNodeSelection}
+ * adds to the client, and by {@link HedgingTransport} for the requests it gives up on. Only queries are timed:
+ * bulk requests and the like take as long as their size, not as the node they're sent to.
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+
+    public static final double DEFAULT_ALPHA = 0.2;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    public static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofSeconds(5);
+
+    // below this, differences are noise rather than a slow node
+    private static final long SLACK_NANOS = Duration.ofMillis(1).toNanos();
+    private static final String STARTED = LatencyAwareNodeSelector.class.getName() + ".started";
+    private static final Set<String> QUERY_ENDPOINTS = Set.of("_query", "_search", "_msearch", "_count");
+
+    /**
+     * Set by {@link HedgingTransport} around sending a request, which then has to go to exactly one node, that it
+     * can avoid when hedging. The REST client selects the nodes on the calling thread, before sending.
+     */
+    static final ThreadLocal<Selection> SELECTION = new ThreadLocal<>();
+
+    private final double alpha;
+    private final double tolerance;
+    private final long probeIntervalNanos;
+    private final ConcurrentHashMap<HttpHost, Latency> latencies = new ConcurrentHashMap<>();
+
+    public LatencyAwareNodeSelector() {
+        this(DEFAULT_ALPHA, DEFAULT_TOLERANCE, DEFAULT_PROBE_INTERVAL);
+    }
+
+    /**
+     * @param alpha         weight of every new response time in the average, between 0 and 1
+     * @param tolerance     how many times slower than the fastest node a node may be, and still get requests
+     * @param probeInterval how often a node left out gets a request anyway
+     */
+    public LatencyAwareNodeSelector(double alpha, double tolerance, Duration probeInterval) {
+        assert alpha > 0 && alpha <= 1;
+        assert tolerance >= 1;
+        this.alpha = alpha;
+        this.tolerance = tolerance;
+        this.probeIntervalNanos = probeInterval.toNanos();
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        Selection selection = SELECTION.get();
+        if (selection != null) {
+            selectOne(nodes, selection);
+            return;
+        }
+        long now = System.nanoTime();
+        // scored once, as scoring a node which is due for a probe uses it up; unboxed, as this runs on every request
+        double[] scores = new double[nodes instanceof Collection<Node> collection ? collection.size() : 8];
+        int scored = 0;
+        double fastest = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            double score = probe(node.getHost(), now) ? 0 : score(node.getHost(), now);
+            if (scored == scores.length) {
+                scores = Arrays.copyOf(scores, 2 * scored + 1);
+            }
+            scores[scored++] = score;
+            if (score > 0) {
+                fastest = Math.min(fastest, score);
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            return;
+        }
+        // nodes without an average, or probed by this request, stay
+        double limit = fastest * tolerance + SLACK_NANOS;
+        int i = 0;
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); i++) {
+            iterator.next();
+            if (scores[i] > limit) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void selectOne(Iterable<Node> nodes, Selection selection) {
+        long now = System.nanoTime();
+        Node best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            double score = score(node.getHost(), now);
+            // an avoided node is only picked when there's nothing else
+            if (selection.avoid.contains(node.getHost())) {
+                score += Double.MAX_VALUE / 2;
+            }
+            if (best == null || score < bestScore) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            if (iterator.next() != best) {
+                iterator.remove();
+            }
+        }
+        if (best != null) {
+            selection.chosen = best.getHost();
+            probe(best.getHost(), now);
+        }
+    }
+
+    /**
+     * The average response time of the host, or 0 when it has none, or none recent enough, so that it's picked.
+     */
+    private double score(HttpHost host, long now) {
+        Latency latency = latencies.get(host);
+        if (latency == null || now - latency.sampledAtNanos.get() > probeIntervalNanos) {
+            return 0;
+        }
+        double average = Double.longBitsToDouble(latency.averageNanos.get());
+        return Double.isNaN(average) ? 0 : average;
+    }
+
+    /**
+     * Whether the host has an average, but none recent enough, in which case it's probed by this request only,
+     * not by all the ones until it responds: its average counts as recent again from now on.
+     */
+    private boolean probe(HttpHost host, long now) {
+        Latency latency = latencies.get(host);
+        if (latency == null) {
+            return false;
+        }
+        long sampledAt = latency.sampledAtNanos.get();
+        return now - sampledAt > probeIntervalNanos && latency.sampledAtNanos.compareAndSet(sampledAt, now);
+    }
+
+    /**
+     * Adds a response time of the host to its average.
+     */
+    public void record(HttpHost host, long nanos) {
+        Latency latency = latencies.computeIfAbsent(host, key -> new Latency());
+        long current;
+        double updated;
+        do {
+            current = latency.averageNanos.get();
+            double average = Double.longBitsToDouble(current);
+            updated = Double.isNaN(average) ? nanos : average + alpha * (nanos - average);
+        } while (!latency.averageNanos.compareAndSet(current, Double.doubleToRawLongBits(updated)));
+        latency.sampledAtNanos.set(System.nanoTime());
+    }
+
+    /**
+     * The average response time of the host, in nanoseconds, or {@code NaN} when it has none yet.
+     */
+    public double averageNanos(HttpHost host) {
+        Latency latency = latencies.get(host);
+        return latency == null ? Double.NaN : Double.longBitsToDouble(latency.averageNanos.get());
+    }
+
+    HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            if (isQuery(request.getRequestLine().getUri())) {
+                context.setAttribute(STARTED, System.nanoTime());
+            }
+        };
+    }
+
+    static boolean isQuery(String uri) {
+        int end = uri.indexOf('?');
+        String path = end < 0 ? uri : uri.substring(0, end);
+        return QUERY_ENDPOINTS.contains(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            if (context.getAttribute(STARTED) instanceof Long started) {
+                context.removeAttribute(STARTED);
+                HttpHost host = HttpClientContext.adapt(context).getTargetHost();
+                if (host != null) {
+                    record(host, System.nanoTime() - started);
+                }
+            }
+        };
+    }
+
+    private static final class Latency {
+        final AtomicLong averageNanos = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        final AtomicLong sampledAtNanos = new AtomicLong(System.nanoTime());
+    }
+
+    static final class Selection {
+        final Set<HttpHost> avoid;
+        HttpHost chosen;
+
+        Selection(Set<HttpHost> avoid) {
+            this.avoid = avoid;
+        }
+    }
+}
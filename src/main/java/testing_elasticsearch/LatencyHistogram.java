@@ -0,0 +1,94 @@
+package testing_elasticsearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond latencies, with a relative error below 1.6% across the whole {@code long} range.
+ * Every power of two is split into 64 linear buckets, so recording is a couple of bit operations
+ * and one atomic increment, and never allocates.
+ * Percentiles are read without stopping the writers, so under load they are a close approximation.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = HALF_SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS) + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // somebody else has just recorded, try again
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the highest value which {@code percentile}% of the recorded values don't exceed, 0 when empty
+     */
+    public long percentile(double percentile) {
+        assert percentile >= 0 && percentile <= 100;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return Math.min(highestEquivalentValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = index - ((long) shift << (SUB_BUCKET_BITS - 1));
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + percentile(50) + "ns, p99=" + percentile(99) + "ns, p99.9=" + percentile(99.9) + "ns, max=" + max() + "ns, count=" + count();
+    }
+}
@@ -0,0 +1,117 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.transport.TransportException;
+import org.elasticsearch.client.ResponseException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link BookSearcher} which sends queries only as fast as the cluster takes them, through an
+ * {@link AdaptiveConcurrencyLimiter}. The same limiter should be shared by every searcher of a cluster.
+ * It wraps another searcher, e.g. a partitioned, caching or coalescing one, whose queries it limits.
+ * Shed queries fail with a {@link RejectedExecutionException} without sending anything, and show up as
+ * {@link QueryMetrics.QueryStats#shed}; the time spent waiting for a permit shows up as {@link QueryMetrics.QueryStats#queueWait}.
+ */
+public class LimitingBookSearcher extends ForwardingBookSearcher {
+
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Duration timeout;
+
+    public LimitingBookSearcher(ElasticsearchClient esClient, AdaptiveConcurrencyLimiter limiter) {
+        this(esClient, BackendVersionCache.shared(), QueryMetrics.shared(), limiter, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout how long a query may take, waiting for a permit included; queries which wouldn't make it are shed
+     */
+    public LimitingBookSearcher(ElasticsearchClient esClient, BackendVersionCache versionCache, QueryMetrics metrics,
+                                AdaptiveConcurrencyLimiter limiter, Duration timeout) {
+        this(new BookSearcher(esClient, versionCache, metrics), limiter, timeout);
+    }
+
+    /**
+     * @param searcher sends the queries once they got a permit; shed queries are counted in its metrics
+     * @param timeout  how long a query may take, waiting for a permit included; queries which wouldn't make it are shed
+     */
+    public LimitingBookSearcher(BookSearcher searcher, AdaptiveConcurrencyLimiter limiter, Duration timeout) {
+        super(searcher);
+        this.limiter = limiter;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int numberOfBooksPublishedInYear(int year) {
+        return limited(BOOKS_PUBLISHED_IN_YEAR, () -> super.numberOfBooksPublishedInYear(year));
+    }
+
+    @Override
+    public YearHistogram numberOfBooksPublishedInYears(int minYear, int maxYear) {
+        return limited(BOOKS_PUBLISHED_IN_YEARS, () -> super.numberOfBooksPublishedInYears(minYear, maxYear));
+    }
+
+    @Override
+    public List<MostPublished> mostPublishedAuthorsInYears(int minYear, int maxYear) {
+        return limited(MOST_PUBLISHED_AUTHORS, () -> super.mostPublishedAuthorsInYears(minYear, maxYear));
+    }
+
+    @Override
+    public int mostPublishedAuthorsInYears(int minYear, int maxYear, int limit, Consumer<? super MostPublished> consumer) {
+        return limited(MOST_PUBLISHED_AUTHORS_STREAMING, () -> super.mostPublishedAuthorsInYears(minYear, maxYear, limit, consumer));
+    }
+
+    public AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    private <T> T limited(String queryType, Supplier<T> query) {
+        QueryMetrics.QueryStats stats = metrics().query(queryType);
+        long startedNanos = System.nanoTime();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(queryType, startedNanos + timeout.toNanos());
+        } catch (RejectedExecutionException e) {
+            stats.shed.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        stats.queueWait.record(System.nanoTime() - startedNanos);
+
+        try {
+            T result = query.get();
+            permit.success();
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (isThrottled(e)) {
+                permit.throttled();
+            } else {
+                permit.dropped();
+            }
+            throw e;
+        }
+    }
+
+    static boolean isThrottled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            int status = switch (cause) {
+                case TransportException transport -> transport.statusCode();
+                case ElasticsearchException elasticsearch -> elasticsearch.status();
+                case ResponseException response -> response.getResponse().getStatusLine().getStatusCode();
+                default -> 0;
+            };
+            if (status == 429) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,219 @@
+package testing_elasticsearch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator: operations start at a fixed arrival rate, each on its own virtual thread,
+ * whether or not the previous ones are done, just like independent users would send them.
+ * <p>
+ * Latencies are measured from when an operation was scheduled to start, not from when it actually started.
+ * A closed loop, or a scheduler which falls behind, would otherwise wait out a stall instead of sending,
+ * and leave out exactly the operations which would have seen it (coordinated omission).
+ * The service time, from the actual start, is reported as well; the gap between the two shows queueing in the client.
+ */
+public final class LoadGenerator {
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private double ratePerSecond = 100;
+    private Duration duration = Duration.ofSeconds(30);
+    private Duration warmUp = Duration.ofSeconds(5);
+    private int maxInFlight = 10_000;
+    private long seed = 42;
+
+    /**
+     * @param weight how often this operation comes up relative to the others of the mix
+     * @param units  how many units of work one operation is, e.g. books ingested, for the throughput in units per second
+     */
+    public LoadGenerator withOperation(String name, double weight, int units, Runnable operation) {
+        assert weight > 0 && units > 0;
+        operations.put(name, new Operation(name, weight, units, operation));
+        return this;
+    }
+
+    public LoadGenerator withOperation(String name, double weight, Runnable operation) {
+        return withOperation(name, weight, 1, operation);
+    }
+
+    public LoadGenerator withRate(double ratePerSecond) {
+        assert ratePerSecond > 0;
+        this.ratePerSecond = ratePerSecond;
+        return this;
+    }
+
+    public LoadGenerator withDuration(Duration duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * @param warmUp how long to run before measuring, so that JIT compilation and connection setup don't count
+     */
+    public LoadGenerator withWarmUp(Duration warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * @param maxInFlight beyond which operations are dropped rather than started, so an overloaded target can't
+     *                    exhaust the memory; dropped operations are counted, and mean the rate isn't sustainable
+     */
+    public LoadGenerator withMaxInFlight(int maxInFlight) {
+        assert maxInFlight > 0;
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public LoadGenerator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public Report run() throws InterruptedException {
+        assert !operations.isEmpty();
+        if (!warmUp.isZero()) {
+            run(warmUp);
+        }
+        return run(duration);
+    }
+
+    private Report run(Duration duration) throws InterruptedException {
+        List<Operation> mix = new ArrayList<>(operations.values());
+        double[] cumulativeWeights = new double[mix.size()];
+        double total = 0;
+        for (int i = 0; i < mix.size(); i++) {
+            total += mix.get(i).weight();
+            cumulativeWeights[i] = total;
+        }
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (Operation operation : mix) {
+            stats.put(operation.name(), new Stats());
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        long count = (long) (duration.toNanos() / intervalNanos);
+        long startedNanos = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; i < count; i++) {
+                long intendedNanos = startedNanos + (long) (i * intervalNanos);
+                long delay;
+                while ((delay = intendedNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                Operation operation = pick(mix, cumulativeWeights, random.nextDouble() * total);
+                Stats operationStats = stats.get(operation.name());
+                if (!inFlight.tryAcquire()) {
+                    operationStats.dropped.increment();
+                    continue;
+                }
+                executor.execute(() -> {
+                    long actualNanos = System.nanoTime();
+                    try {
+                        operation.operation().run();
+                    } catch (RuntimeException e) {
+                        operationStats.errors.increment();
+                    } finally {
+                        long endNanos = System.nanoTime();
+                        operationStats.latency.record(endNanos - intendedNanos);
+                        operationStats.serviceTime.record(endNanos - actualNanos);
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        // closing the executor waited for the operations still in flight, they count as well
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startedNanos);
+
+        Map<String, OperationReport> reports = new LinkedHashMap<>();
+        for (Operation operation : mix) {
+            Stats operationStats = stats.get(operation.name());
+            long completed = operationStats.latency.count();
+            reports.put(operation.name(), new OperationReport(
+                operation.name(),
+                completed,
+                operationStats.errors.sum(),
+                operationStats.dropped.sum(),
+                completed * operation.units() / (elapsed.toNanos() / 1e9),
+                operationStats.latency,
+                operationStats.serviceTime));
+        }
+        return new Report(ratePerSecond, elapsed, reports);
+    }
+
+    private static Operation pick(List<Operation> mix, double[] cumulativeWeights, double value) {
+        for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+            if (value < cumulativeWeights[i]) {
+                return mix.get(i);
+            }
+        }
+        return mix.getLast();
+    }
+
+    private record Operation(String name, double weight, int units, Runnable operation) {
+    }
+
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+    }
+
+    /**
+     * @param throughput completed units of work per second, errors included
+     * @param latency    from when each operation was scheduled to start until it was done
+     */
+    public record OperationReport(
+        String name,
+        long completed,
+        long errors,
+        long dropped,
+        double throughput,
+        LatencyHistogram latency,
+        LatencyHistogram serviceTime
+    ) {
+    }
+
+    public record Report(double targetRate, Duration elapsed, Map<String, OperationReport> operations) {
+
+        /**
+         * @return whether every operation was started on schedule and without errors,
+         * i.e. the target can take {@link #targetRate()}
+         */
+        public boolean sustained() {
+            return operations.values().stream().allMatch(o -> o.errors() == 0 && o.dropped() == 0);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder()
+                .append(String.format("%.0f/s for %.1fs%s%n", targetRate, elapsed.toNanos() / 1e9, sustained() ? "" : ", NOT sustained"))
+                .append(String.format("%-36s %10s %8s %8s %12s %10s %10s %10s %10s %10s %12s%n",
+                    "operation", "completed", "errors", "dropped", "throughput/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms"));
+            for (OperationReport o : operations.values()) {
+                report.append(String.format("%-36s %10d %8d %8d %12.1f %10.2f %10.2f %10.2f %10.2f %10.2f %12.2f%n",
+                    o.name(), o.completed(), o.errors(), o.dropped(), o.throughput(),
+                    millis(o.latency().percentile(50)), millis(o.latency().percentile(90)), millis(o.latency().percentile(99)),
+                    millis(o.latency().percentile(99.9)), millis(o.latency().max()), millis(o.serviceTime().percentile(99))));
+            }
+            return report.toString();
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.ApiClient;
+import co.elastic.clients.elasticsearch._helpers.esql.EsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.QueryRequest;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.ToLongFunction;
+
+/**
+ * Wraps another adapter to time the request and the decoding of one query, and to count its rows and bytes.
+ * Create one per query, right before sending it.
+ */
+final class MeasuredAdapter<T> implements EsqlAdapter<T> {
+
+    private final EsqlAdapter<T> delegate;
+    private final String queryType;
+    private final QueryMetrics.QueryStats stats;
+    private final ToLongFunction<T> rows;
+    private final long startedNanos = System.nanoTime();
+
+    MeasuredAdapter(EsqlAdapter<T> delegate, String queryType, QueryMetrics metrics, ToLongFunction<T> rows) {
+        this.delegate = delegate;
+        this.queryType = queryType;
+        this.stats = metrics.query(queryType);
+        this.rows = rows;
+    }
+
+    @Override
+    public String format() {
+        return delegate.format();
+    }
+
+    @Override
+    public boolean columnar() {
+        return delegate.columnar();
+    }
+
+    @Override
+    public T deserialize(ApiClient<ElasticsearchTransport, ?> client, QueryRequest request, BinaryResponse response) throws IOException {
+        long receivedNanos = System.nanoTime();
+        CountingResponse counting = new CountingResponse(response);
+        T result = delegate.deserialize(client, request, counting);
+        long decodedNanos = System.nanoTime();
+        long rowCount = rows.applyAsLong(result);
+        long serverTook = delegate instanceof StreamingEsqlAdapter<?> streaming ? streaming.tookMillis() : -1;
+
+        stats.request.record(receivedNanos - startedNanos);
+        stats.decode.record(decodedNanos - receivedNanos);
+        if (serverTook >= 0) {
+            stats.serverTook.record(serverTook * 1_000_000);
+        }
+        stats.rows.add(rowCount);
+        long bytes = Math.max(counting.bytes, response.contentLength());
+        stats.bytes.add(bytes);
+
+        QueryEvent event = new QueryEvent();
+        if (event.shouldCommit()) {
+            event.queryType = queryType;
+            event.request = receivedNanos - startedNanos;
+            event.decode = decodedNanos - receivedNanos;
+            event.serverTook = serverTook;
+            event.rows = rowCount;
+            event.bytes = bytes;
+            event.commit();
+        }
+        return result;
+    }
+
+    // lazily decoded results (like the ResultSet) count only the bytes read so far, unless the length is known
+    private static final class CountingResponse implements BinaryResponse {
+
+        private final BinaryResponse delegate;
+        private long bytes;
+
+        CountingResponse(BinaryResponse delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public InputStream content() throws IOException {
+            return new FilterInputStream(delegate.content()) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        bytes++;
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        bytes += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
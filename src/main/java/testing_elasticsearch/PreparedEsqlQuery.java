@@ -0,0 +1,173 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.ApiClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.EsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.endpoints.BinaryEndpoint;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import co.elastic.clients.transport.endpoints.EndpointBase;
+import co.elastic.clients.util.BinaryData;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ES|QL query with {@code int} parameters, whose request body is encoded once, when it's prepared.
+ * Running it only writes the parameters between the pre-encoded parts, into a pooled buffer,
+ * and sends those bytes as they are, bypassing the request object and the JSON mapper altogether.
+ * Instances are immutable and meant to be shared, e.g. as constants.
+ */
+public final class PreparedEsqlQuery {
+
+    private static final Endpoint<BinaryData, BinaryResponse, ?> ENDPOINT = new BinaryEndpoint<>(
+        "es/esql.query",
+        request -> "POST",
+        request -> "/_query",
+        EndpointBase.emptyMap(),
+        request -> Map.of("format", "json"),
+        EndpointBase.emptyMap(),
+        true,
+        null);
+
+    // -2147483648 and a comma
+    private static final int MAX_PARAMETER_BYTES = 12;
+    private static final int POOL_SIZE = 64;
+    private static final byte[] SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final String query;
+    private final int parameters;
+    private final byte[] prefix;
+    private final AtomicReferenceArray<byte[]> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+    public PreparedEsqlQuery(String query) {
+        this.query = query;
+        this.parameters = (int) query.chars().filter(c -> c == '?').count();
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(query);
+        byte[] start = "{\"query\":\"".getBytes(StandardCharsets.UTF_8);
+        byte[] end = "\",\"params\":[".getBytes(StandardCharsets.UTF_8);
+        this.prefix = new byte[start.length + escaped.length + end.length];
+        System.arraycopy(start, 0, prefix, 0, start.length);
+        System.arraycopy(escaped, 0, prefix, start.length, escaped.length);
+        System.arraycopy(end, 0, prefix, start.length + escaped.length, end.length);
+    }
+
+    public String query() {
+        return query;
+    }
+
+    public <T> T query(ElasticsearchClient esClient, EsqlAdapter<T> adapter) throws IOException {
+        assert parameters == 0;
+        byte[] buffer = acquire();
+        try {
+            return execute(esClient, adapter, buffer, prefix.length);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public <T> T query(ElasticsearchClient esClient, EsqlAdapter<T> adapter, int parameter) throws IOException {
+        assert parameters == 1;
+        byte[] buffer = acquire();
+        try {
+            return execute(esClient, adapter, buffer, writeInt(buffer, prefix.length, parameter));
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public <T> T query(ElasticsearchClient esClient, EsqlAdapter<T> adapter, int first, int second) throws IOException {
+        assert parameters == 2;
+        byte[] buffer = acquire();
+        try {
+            int length = writeInt(buffer, prefix.length, first);
+            buffer[length++] = ',';
+            return execute(esClient, adapter, buffer, writeInt(buffer, length, second));
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * The exact request body for the given parameters, the same bytes {@code query} would send.
+     */
+    byte[] body(int... values) {
+        assert values.length == parameters;
+        byte[] body = new byte[prefix.length + parameters * MAX_PARAMETER_BYTES + SUFFIX.length];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        int length = prefix.length;
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                body[length++] = ',';
+            }
+            length = writeInt(body, length, values[i]);
+        }
+        System.arraycopy(SUFFIX, 0, body, length, SUFFIX.length);
+        return Arrays.copyOf(body, length + SUFFIX.length);
+    }
+
+    private <T> T execute(ElasticsearchClient esClient, EsqlAdapter<T> adapter, byte[] buffer, int length) throws IOException {
+        if (!"json".equals(adapter.format()) || adapter.columnar()) {
+            throw new IllegalArgumentException("Prepared queries are sent for row-wise JSON only");
+        }
+        System.arraycopy(SUFFIX, 0, buffer, length, SUFFIX.length);
+        BinaryData body = BinaryData.of(buffer, 0, length + SUFFIX.length, "application/json");
+        ElasticsearchTransport transport = esClient._transport();
+        // by the time the response is back, the body has been sent, so the buffer can go back to the pool
+        BinaryResponse response = transport.performRequest(body, ENDPOINT, esClient._transportOptions());
+        ApiClient<ElasticsearchTransport, ElasticsearchEsqlClient> esql = esClient.esql();
+        return adapter.deserialize(esql, null, response);
+    }
+
+    private byte[] acquire() {
+        int start = (int) (Thread.currentThread().threadId() % POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            byte[] buffer = pool.getAndSet((start + i) % POOL_SIZE, null);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        // pooled buffers keep the prefix, only the parameters and the suffix get overwritten
+        byte[] buffer = new byte[prefix.length + parameters * MAX_PARAMETER_BYTES + SUFFIX.length];
+        System.arraycopy(prefix, 0, buffer, 0, prefix.length);
+        return buffer;
+    }
+
+    private void release(byte[] buffer) {
+        int start = (int) (Thread.currentThread().threadId() % POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            if (pool.compareAndSet((start + i) % POOL_SIZE, null, buffer)) {
+                return;
+            }
+        }
+        // the pool is full, let the GC have it
+    }
+
+    /**
+     * Writes the decimal digits of {@code value} at {@code offset}, without going through a {@code String}.
+     *
+     * @return the offset right after the last digit
+     */
+    static int writeInt(byte[] buffer, int offset, int value) {
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[offset++] = '-';
+            remaining = -remaining;
+        }
+        int digits = 1;
+        for (long limit = 10; remaining >= limit; limit *= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return offset + digits;
+    }
+}
@@ -0,0 +1,43 @@
+package testing_elasticsearch;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One {@link BookSearcher} query, from sending the request until the result was decoded.
+ */
+@Name("testing_elasticsearch.Query")
+@Label("Book Query")
+@Category({"Elasticsearch", "Queries"})
+@StackTrace(false)
+class QueryEvent extends jdk.jfr.Event {
+
+    @Label("Query Type")
+    String queryType;
+
+    @Label("Request")
+    @Description("From sending the request until the response starts being decoded")
+    @Timespan(Timespan.NANOSECONDS)
+    long request;
+
+    @Label("Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long decode;
+
+    @Label("Server Took")
+    @Description("As reported by Elasticsearch, -1 when unknown")
+    @Timespan(Timespan.MILLISECONDS)
+    long serverTook;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Response Size")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,102 @@
+package testing_elasticsearch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process metrics of the queries, per query type, and of the HTTP exchanges, per endpoint.
+ * Both sides are needed to tell apart where the time goes: waiting for a connection and the cluster
+ * show up in the HTTP exchange, decoding only in the query.
+ * Recording never allocates once a type has been seen.
+ */
+public class QueryMetrics {
+
+    static final QueryMetrics SHARED = new QueryMetrics();
+
+    private final Map<String, QueryStats> queries = new ConcurrentHashMap<>();
+    private final Map<String, HttpStats> exchanges = new ConcurrentHashMap<>();
+
+    public static QueryMetrics shared() {
+        return SHARED;
+    }
+
+    public QueryStats query(String queryType) {
+        return queries.computeIfAbsent(queryType, t -> new QueryStats());
+    }
+
+    public HttpStats http(String endpoint) {
+        return exchanges.computeIfAbsent(endpoint, e -> new HttpStats());
+    }
+
+    public Map<String, QueryStats> queries() {
+        return Map.copyOf(queries);
+    }
+
+    public Map<String, HttpStats> exchanges() {
+        return Map.copyOf(exchanges);
+    }
+
+    public void reset() {
+        queries.clear();
+        exchanges.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        queries.forEach((type, stats) -> report.append(type).append(": ").append(stats).append('\n'));
+        exchanges.forEach((endpoint, stats) -> report.append(endpoint).append(": ").append(stats).append('\n'));
+        return report.toString();
+    }
+
+    public static final class QueryStats {
+
+        /**
+         * Time spent before the request could be sent, e.g. waiting for a permit.
+         */
+        public final LatencyHistogram queueWait = new LatencyHistogram();
+        /**
+         * From sending the request until the response starts being decoded.
+         */
+        public final LatencyHistogram request = new LatencyHistogram();
+        /**
+         * As reported by Elasticsearch in the {@code took} of the response, when there is one.
+         */
+        public final LatencyHistogram serverTook = new LatencyHistogram();
+        public final LatencyHistogram decode = new LatencyHistogram();
+        public final LongAdder rows = new LongAdder();
+        public final LongAdder bytes = new LongAdder();
+        public final LongAdder failures = new LongAdder();
+        /**
+         * Calls which didn't send a request, but attached to an identical one already in flight.
+         */
+        public final LongAdder coalesced = new LongAdder();
+        /**
+         * Calls which were rejected before sending a request, to keep the cluster from being overloaded.
+         */
+        public final LongAdder shed = new LongAdder();
+
+        @Override
+        public String toString() {
+            return "request[" + request + "], decode[" + decode + "], serverTook[" + serverTook + "], queueWait[" + queueWait
+                + "], rows=" + rows.sum() + ", bytes=" + bytes.sum() + ", failures=" + failures.sum() + ", coalesced=" + coalesced.sum()
+                + ", shed=" + shed.sum();
+        }
+    }
+
+    public static final class HttpStats {
+
+        /**
+         * From the HTTP client preparing the request until the response headers arrive.
+         */
+        public final LatencyHistogram exchange = new LatencyHistogram();
+        public final LongAdder throttled = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+
+        @Override
+        public String toString() {
+            return "exchange[" + exchange + "], throttled=" + throttled.sum() + ", errors=" + errors.sum();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decodes every row of an ES|QL response straight into a record, which is handed to the consumer as soon as it's
+ * parsed. The columns are matched to the record components by name ({@link JsonProperty} when there is one),
+ * once per response; the values go from the parser into primitive slots and from there into the canonical
+ * constructor, so nothing is boxed and nothing but the records (and their strings) is allocated per row.
+ * The result is the number of rows.
+ * <p>
+ * Components may be {@code int}, {@code long}, {@code short}, {@code double}, {@code float}, {@code boolean}
+ * or {@code String}; nulls become 0, {@code false} or {@code null}.
+ */
+class RecordEsqlAdapter<R extends Record> extends StreamingEsqlAdapter<Integer> {
+
+    private static final ClassValue<Decoder> DECODERS = new ClassValue<>() {
+        @Override
+        protected Decoder computeValue(Class<?> type) {
+            return new Decoder(type.asSubclass(Record.class));
+        }
+    };
+
+    private final Class<R> type;
+    private final Consumer<? super R> consumer;
+
+    RecordEsqlAdapter(Class<R> type, Consumer<? super R> consumer) {
+        this.type = type;
+        this.consumer = consumer;
+    }
+
+    @Override
+    Integer readValues(JsonParser parser, List<String> columns) throws IOException {
+        Decoder decoder = DECODERS.get(type);
+        int[] componentOfColumn = decoder.componentsOf(columns);
+        int components = decoder.kinds.length;
+        long[] longs = new long[components];
+        double[] doubles = new double[components];
+        Object[] references = new Object[components];
+
+        int rows = 0;
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            Arrays.fill(longs, 0);
+            Arrays.fill(doubles, 0);
+            Arrays.fill(references, null);
+            int column = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                int component = column < componentOfColumn.length ? componentOfColumn[column] : -1;
+                if (component >= 0 && parser.currentToken() != JsonToken.VALUE_NULL) {
+                    switch (decoder.kinds[component]) {
+                        case LONG -> longs[component] = parser.currentToken() == JsonToken.VALUE_STRING
+                            ? Long.parseLong(parser.getText())
+                            : parser.getLongValue();
+                        case DOUBLE -> doubles[component] = parser.getDoubleValue();
+                        case BOOLEAN -> longs[component] = parser.getBooleanValue() ? 1 : 0;
+                        case STRING -> references[component] = parser.getText();
+                    }
+                }
+                parser.skipChildren();
+                column++;
+            }
+            consumer.accept(type.cast(decoder.construct(longs, doubles, references)));
+            rows++;
+        }
+        return rows;
+    }
+
+    private enum Kind {
+        LONG, DOUBLE, BOOLEAN, STRING
+    }
+
+    /**
+     * What's known of a record type before any response: the column name and the kind of every component,
+     * and its canonical constructor taking them from the slots.
+     */
+    private static final class Decoder {
+
+        private final String[] names;
+        private final Kind[] kinds;
+        // (long[], double[], Object[]) -> Object
+        private final MethodHandle constructor;
+
+        Decoder(Class<? extends Record> type) {
+            RecordComponent[] components = type.getRecordComponents();
+            names = new String[components.length];
+            kinds = new Kind[components.length];
+            Class<?>[] parameterTypes = new Class<?>[components.length];
+            MethodHandle[] getters = new MethodHandle[components.length];
+            int[] slots = new int[components.length];
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+                for (int i = 0; i < components.length; i++) {
+                    RecordComponent component = components[i];
+                    JsonProperty property = component.getAccessor().getAnnotation(JsonProperty.class);
+                    names[i] = property != null && !property.value().isEmpty() ? property.value() : component.getName();
+                    Class<?> parameterType = component.getType();
+                    parameterTypes[i] = parameterType;
+                    kinds[i] = kindOf(type, component);
+                    slots[i] = switch (kinds[i]) {
+                        case LONG, BOOLEAN -> 0;
+                        case DOUBLE -> 1;
+                        case STRING -> 2;
+                    };
+                    getters[i] = getter(kinds[i], i, parameterType);
+                }
+                MethodHandle canonical = lookup.findConstructor(type, MethodType.methodType(void.class, parameterTypes));
+                MethodHandle fromArrays = MethodHandles.filterArguments(canonical, 0, getters);
+                constructor = MethodHandles.permuteArguments(
+                    fromArrays,
+                    MethodType.methodType(type, long[].class, double[].class, Object[].class),
+                    slots
+                ).asType(MethodType.methodType(Object.class, long[].class, double[].class, Object[].class));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Can't decode ES|QL rows into " + type, e);
+            }
+        }
+
+        Object construct(long[] longs, double[] doubles, Object[] references) throws IOException {
+            try {
+                return (Object) constructor.invokeExact(longs, doubles, references);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IOException(e);
+            }
+        }
+
+        int[] componentsOf(List<String> columns) throws IOException {
+            int[] componentOfColumn = new int[columns.size()];
+            Arrays.fill(componentOfColumn, -1);
+            for (int component = 0; component < names.length; component++) {
+                componentOfColumn[columnIndex(columns, names[component])] = component;
+            }
+            return componentOfColumn;
+        }
+
+        private static Kind kindOf(Class<?> type, RecordComponent component) {
+            Class<?> componentType = component.getType();
+            if (componentType == int.class || componentType == long.class || componentType == short.class) {
+                return Kind.LONG;
+            } else if (componentType == double.class || componentType == float.class) {
+                return Kind.DOUBLE;
+            } else if (componentType == boolean.class) {
+                return Kind.BOOLEAN;
+            } else if (componentType == String.class) {
+                return Kind.STRING;
+            }
+            throw new IllegalArgumentException("Can't decode ES|QL values into " + type.getSimpleName() + "." + component.getName() + " of " + componentType);
+        }
+
+        /**
+         * A handle reading slot {@code index} of the array for the kind, and converting it to the parameter type.
+         */
+        private static MethodHandle getter(Kind kind, int index, Class<?> parameterType) throws ReflectiveOperationException {
+            Class<?> arrayType = switch (kind) {
+                case LONG, BOOLEAN -> long[].class;
+                case DOUBLE -> double[].class;
+                case STRING -> Object[].class;
+            };
+            MethodHandle getter = MethodHandles.insertArguments(MethodHandles.arrayElementGetter(arrayType), 1, index);
+            if (kind == Kind.BOOLEAN) {
+                MethodHandle isTrue = MethodHandles.lookup().findStatic(Decoder.class, "isTrue", MethodType.methodType(boolean.class, long.class));
+                return MethodHandles.filterReturnValue(getter, isTrue);
+            }
+            return MethodHandles.explicitCastArguments(getter, MethodType.methodType(parameterType, arrayType));
+        }
+
+        private static boolean isTrue(long value) {
+            return value != 0;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransportBase;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.rest_client.RestClientHttpClient;
+import co.elastic.clients.util.BinaryData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Transport which either records real request/response pairs to a directory, or replays them from there,
+ * without any network. Replays can be slowed down by a latency distribution, and made to fail
+ * with server errors or with 429 rejections, so the client stack can be load tested reproducibly.
+ * Requests are matched by method, path, query parameters and body; headers are ignored.
+ */
+public class RecordReplayTransport extends ElasticsearchTransportBase {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private RecordReplayTransport(TransportHttpClient httpClient, TransportOptions options, JsonpMapper jsonpMapper) {
+        super(httpClient, options, jsonpMapper);
+    }
+
+    /**
+     * Sends the requests to Elasticsearch through the given client, saving every response in {@code directory}.
+     */
+    public static RecordReplayTransport recording(RestClient restClient, JsonpMapper jsonpMapper, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new RecordReplayTransport(
+            new RecordingHttpClient(new RestClientHttpClient(restClient), directory),
+            null,
+            jsonpMapper);
+    }
+
+    /**
+     * Answers the requests with the responses found in {@code directory}, as the faults allow.
+     */
+    public static RecordReplayTransport replaying(Path directory, JsonpMapper jsonpMapper, Faults faults) {
+        return new RecordReplayTransport(new ReplayingHttpClient(directory, faults), null, jsonpMapper);
+    }
+
+    static String keyOf(TransportHttpClient.Request request, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((request.method() + " " + request.path() + " " + new TreeMap<>(request.queryParams()) + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(body);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * What was sent, what came back, and how long it took.
+     */
+    record Interaction(
+        String method,
+        String path,
+        Map<String, String> queryParams,
+        String requestBody,
+        int status,
+        String contentType,
+        String responseBody,
+        long tookNanos
+    ) {
+    }
+
+    /**
+     * How a replay misbehaves. Errors and rejections are drawn independently for every request, before the latency.
+     */
+    public record Faults(LatencyDistribution latency, double errorRate, double throttleRate, long seed) {
+
+        public static final Faults NONE = new Faults(LatencyDistribution.none(), 0, 0, 0);
+
+        public Faults {
+            assert errorRate >= 0 && throttleRate >= 0 && errorRate + throttleRate <= 1;
+        }
+
+        public Faults withLatency(LatencyDistribution latency) {
+            return new Faults(latency, errorRate, throttleRate, seed);
+        }
+
+        public Faults withErrorRate(double errorRate) {
+            return new Faults(latency, errorRate, throttleRate, seed);
+        }
+
+        public Faults withThrottleRate(double throttleRate) {
+            return new Faults(latency, errorRate, throttleRate, seed);
+        }
+
+        public Faults withSeed(long seed) {
+            return new Faults(latency, errorRate, throttleRate, seed);
+        }
+    }
+
+    @FunctionalInterface
+    public interface LatencyDistribution {
+
+        /**
+         * @param recordedNanos how long the recorded request took
+         */
+        long nextNanos(RandomGenerator random, long recordedNanos);
+
+        static LatencyDistribution none() {
+            return (random, recordedNanos) -> 0;
+        }
+
+        static LatencyDistribution recorded() {
+            return (random, recordedNanos) -> recordedNanos;
+        }
+
+        static LatencyDistribution fixed(Duration latency) {
+            long nanos = latency.toNanos();
+            return (random, recordedNanos) -> nanos;
+        }
+
+        static LatencyDistribution uniform(Duration min, Duration max) {
+            long minNanos = min.toNanos();
+            long maxNanos = max.toNanos();
+            return (random, recordedNanos) -> random.nextLong(minNanos, maxNanos + 1);
+        }
+
+        /**
+         * Long-tailed, like most real latencies: half of the requests are faster than the median,
+         * and 1% slower than the 99th percentile.
+         */
+        static LatencyDistribution logNormal(Duration median, Duration p99) {
+            double mu = Math.log(median.toNanos());
+            // 2.326 is the 99th percentile of the standard normal distribution
+            double sigma = (Math.log(p99.toNanos()) - mu) / 2.326;
+            return (random, recordedNanos) -> (long) Math.exp(mu + sigma * random.nextGaussian());
+        }
+    }
+
+    private static final class RecordingHttpClient implements TransportHttpClient {
+
+        private final TransportHttpClient delegate;
+        private final Path directory;
+
+        RecordingHttpClient(TransportHttpClient delegate, Path directory) {
+            this.delegate = delegate;
+            this.directory = directory;
+        }
+
+        @Override
+        public TransportOptions createOptions(TransportOptions options) {
+            return delegate.createOptions(options);
+        }
+
+        @Override
+        public Response performRequest(String endpointId, Node node, Request request, TransportOptions options) throws IOException {
+            long started = System.nanoTime();
+            return record(request, delegate.performRequest(endpointId, node, request, options), System.nanoTime() - started);
+        }
+
+        @Override
+        public CompletableFuture<Response> performRequestAsync(String endpointId, Node node, Request request, TransportOptions options) {
+            long started = System.nanoTime();
+            return delegate.performRequestAsync(endpointId, node, request, options).thenApply(response -> {
+                try {
+                    return record(request, response, System.nanoTime() - started);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        private Response record(Request request, Response response, long tookNanos) throws IOException {
+            byte[] requestBody = ByteBuffers.bytesOf(request.body());
+            BinaryData body = response.body();
+            byte[] responseBody = new byte[0];
+            String contentType = null;
+            if (body != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                body.writeTo(bytes);
+                responseBody = bytes.toByteArray();
+                contentType = body.contentType();
+            }
+            Interaction interaction = new Interaction(
+                request.method(),
+                request.path(),
+                request.queryParams(),
+                new String(requestBody, StandardCharsets.UTF_8),
+                response.statusCode(),
+                contentType,
+                new String(responseBody, StandardCharsets.UTF_8),
+                tookNanos);
+            OBJECT_MAPPER.writeValue(directory.resolve(keyOf(request, requestBody) + ".json").toFile(), interaction);
+            response.close();
+            return new ReplayedResponse(response.node(), interaction.status(), interaction.contentType(), responseBody);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class ReplayingHttpClient implements TransportHttpClient {
+
+        private static final Node NODE = new Node("http://replay:9200");
+
+        private static final byte[] THROTTLED = """
+            {"error":{"type":"es_rejected_execution_exception","reason":"rejected execution (replayed)"},"status":429}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+        private static final byte[] FAILED = """
+            {"error":{"type":"node_not_connected_exception","reason":"node failure (replayed)"},"status":503}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+        private final Path directory;
+        private final Faults faults;
+        private final RandomGenerator random;
+        private final Map<String, Interaction> interactions = new ConcurrentHashMap<>();
+
+        ReplayingHttpClient(Path directory, Faults faults) {
+            this.directory = directory;
+            this.faults = faults;
+            // thread safe and reproducible for the same seed
+            this.random = RandomGeneratorFactory.of("L64X128MixRandom").create(faults.seed());
+        }
+
+        @Override
+        public Response performRequest(String endpointId, Node node, Request request, TransportOptions options) throws IOException {
+            Replay replay = replay(request);
+            try {
+                TimeUnit.NANOSECONDS.sleep(replay.latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return replay.response;
+        }
+
+        @Override
+        public CompletableFuture<Response> performRequestAsync(String endpointId, Node node, Request request, TransportOptions options) {
+            Replay replay;
+            try {
+                replay = replay(request);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.supplyAsync(
+                () -> replay.response,
+                CompletableFuture.delayedExecutor(replay.latencyNanos, TimeUnit.NANOSECONDS));
+        }
+
+        private Replay replay(Request request) throws IOException {
+            byte[] requestBody = ByteBuffers.bytesOf(request.body());
+            Interaction interaction = interactions.computeIfAbsent(keyOf(request, requestBody), this::load);
+            if (interaction == null) {
+                throw new IOException("No recorded response for " + request.method() + " " + request.path() + " in " + directory);
+            }
+            double dice;
+            long latencyNanos;
+            synchronized (random) {
+                dice = random.nextDouble();
+                latencyNanos = Math.max(0, faults.latency().nextNanos(random, interaction.tookNanos()));
+            }
+            Response response;
+            if (dice < faults.throttleRate()) {
+                response = new ReplayedResponse(NODE, 429, "application/json", THROTTLED);
+            } else if (dice < faults.throttleRate() + faults.errorRate()) {
+                response = new ReplayedResponse(NODE, 503, "application/json", FAILED);
+            } else {
+                response = new ReplayedResponse(NODE, interaction.status(), interaction.contentType(),
+                    interaction.responseBody().getBytes(StandardCharsets.UTF_8));
+            }
+            return new Replay(response, latencyNanos);
+        }
+
+        private Interaction load(String key) {
+            Path file = directory.resolve(key + ".json");
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try {
+                return OBJECT_MAPPER.readValue(file.toFile(), Interaction.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private record Replay(Response response, long latencyNanos) {
+        }
+    }
+
+    private record ReplayedResponse(TransportHttpClient.Node node, int statusCode, String contentType, byte[] bytes)
+        implements TransportHttpClient.Response {
+
+        @Override
+        public String header(String name) {
+            if ("X-Elastic-Product".equalsIgnoreCase(name)) {
+                return "Elasticsearch";
+            }
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                return contentType;
+            }
+            return null;
+        }
+
+        @Override
+        public List<String> headers(String name) {
+            String value = header(name);
+            return value == null ? List.of() : List.of(value);
+        }
+
+        @Override
+        public BinaryData body() {
+            return contentType == null ? null : BinaryData.of(bytes, contentType);
+        }
+
+        @Override
+        public Object originalResponse() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
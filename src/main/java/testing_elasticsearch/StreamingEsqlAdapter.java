@@ -0,0 +1,163 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.ApiClient;
+import co.elastic.clients.elasticsearch._helpers.esql.EsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.QueryRequest;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Base for adapters which decode the ES|QL JSON response with the Jackson streaming parser,
+ * instead of building a JSON tree or a {@link java.sql.ResultSet} first.
+ * The column names are read once; subclasses get the parser positioned on the {@code values} array.
+ */
+abstract class StreamingEsqlAdapter<T> implements EsqlAdapter<T> {
+
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private long tookMillis = -1;
+    private String asyncId;
+    private boolean running;
+    private boolean skipValuesWhileRunning;
+
+    @Override
+    public String format() {
+        return "json";
+    }
+
+    @Override
+    public boolean columnar() {
+        return false;
+    }
+
+    @Override
+    public T deserialize(ApiClient<ElasticsearchTransport, ?> client, QueryRequest request, BinaryResponse response) throws IOException {
+        try (response; JsonParser parser = JSON_FACTORY.createParser(response.content())) {
+            return readResponse(parser);
+        }
+    }
+
+    T readResponse(JsonParser parser) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        List<String> columns = null;
+        T result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("columns".equals(field)) {
+                columns = readColumns(parser);
+            } else if ("values".equals(field) && running && skipValuesWhileRunning) {
+                parser.skipChildren();
+            } else if ("values".equals(field)) {
+                if (columns == null) {
+                    throw new IOException("ES|QL response has values before columns");
+                }
+                expect(value, JsonToken.START_ARRAY);
+                result = readValues(parser, columns);
+                expect(parser.currentToken(), JsonToken.END_ARRAY);
+            } else if ("took".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                tookMillis = parser.getLongValue();
+            } else if ("id".equals(field) && value == JsonToken.VALUE_STRING) {
+                asyncId = parser.getText();
+            } else if ("is_running".equals(field)) {
+                running = value == JsonToken.VALUE_TRUE;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (result == null && !running) {
+            throw new IOException("ES|QL response has no values");
+        }
+        return result;
+    }
+
+    /**
+     * @return what the server reported in {@code took} of the last response, or -1 when it didn't
+     */
+    long tookMillis() {
+        return tookMillis;
+    }
+
+    /**
+     * @return the id of the async query the last response was for, or null when it wasn't async or isn't kept
+     */
+    String asyncId() {
+        return asyncId;
+    }
+
+    /**
+     * @return whether the async query the last response was for is still running; its result is then partial,
+     * or null when there are no values yet
+     */
+    boolean running() {
+        return running;
+    }
+
+    /**
+     * Makes the values of responses for async queries which are still running be skipped rather than read,
+     * for adapters which can't take partial results, e.g. because they pass every row on.
+     * Relies on Elasticsearch sending {@code is_running} before {@code values}, which it does.
+     */
+    void skipValuesWhileRunning() {
+        this.skipValuesWhileRunning = true;
+    }
+
+    /**
+     * Called with the parser on the {@code START_ARRAY} of {@code values}, must leave it on the matching {@code END_ARRAY}.
+     */
+    abstract T readValues(JsonParser parser, List<String> columns) throws IOException;
+
+    /**
+     * @return a new adapter, which reads the values with this one and then applies {@code mapper} to the result
+     */
+    <R> StreamingEsqlAdapter<R> map(Function<? super T, ? extends R> mapper) {
+        StreamingEsqlAdapter<T> values = this;
+        return new StreamingEsqlAdapter<>() {
+            @Override
+            R readValues(JsonParser parser, List<String> columns) throws IOException {
+                return mapper.apply(values.readValues(parser, columns));
+            }
+        };
+    }
+
+    static int columnIndex(List<String> columns, String name) throws IOException {
+        int index = columns.indexOf(name);
+        if (index < 0) {
+            throw new IOException("ES|QL response has no column " + name + ", only " + columns);
+        }
+        return index;
+    }
+
+    static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " in ES|QL response, but got " + actual);
+        }
+    }
+
+    private static List<String> readColumns(JsonParser parser) throws IOException {
+        List<String> columns = new ArrayList<>();
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("name".equals(field)) {
+                    name = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            columns.add(name);
+        }
+        return columns;
+    }
+}
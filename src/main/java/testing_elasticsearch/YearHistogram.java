@@ -0,0 +1,97 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Number of books published per year, for every year between {@code minYear} and {@code maxYear} inclusive.
+ * Years without any books have a count of 0.
+ */
+public final class YearHistogram {
+
+    private final int minYear;
+    private final int[] counts;
+
+    YearHistogram(int minYear, int[] counts) {
+        this.minYear = minYear;
+        this.counts = counts;
+    }
+
+    public int minYear() {
+        return minYear;
+    }
+
+    public int maxYear() {
+        return minYear + counts.length - 1;
+    }
+
+    public int count(int year) {
+        int i = year - minYear;
+        return i >= 0 && i < counts.length ? counts[i] : 0;
+    }
+
+    public int years() {
+        return counts.length;
+    }
+
+    public long total() {
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return a copy of the counts, where index 0 is {@link #minYear()}
+     */
+    public int[] toArray() {
+        return counts.clone();
+    }
+
+    /**
+     * Reads the rows of {@code stats published = count(*) by year} directly into the counts array.
+     */
+    static final class Adapter extends StreamingEsqlAdapter<YearHistogram> {
+
+        private final int minYear;
+        private final int maxYear;
+
+        Adapter(int minYear, int maxYear) {
+            assert minYear <= maxYear;
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+        }
+
+        @Override
+        YearHistogram readValues(JsonParser parser, List<String> columns) throws IOException {
+            int publishedColumn = columnIndex(columns, "published");
+            int yearColumn = columnIndex(columns, "year");
+            int[] counts = new int[maxYear - minYear + 1];
+
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                int published = 0;
+                int year = Integer.MIN_VALUE;
+                int column = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        if (column == publishedColumn) {
+                            published = parser.getIntValue();
+                        } else if (column == yearColumn) {
+                            year = parser.getIntValue();
+                        }
+                    }
+                    parser.skipChildren();
+                    column++;
+                }
+                if (year >= minYear && year <= maxYear) {
+                    counts[year - minYear] = published;
+                }
+            }
+            return new YearHistogram(minYear, counts);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package testing_elasticsearch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    static final long LATER = Duration.ofMinutes(1).toNanos();
+
+    @Test
+    void shouldGrowWhileFastAndShrinkWhenThrottled() throws InterruptedException {
+        // given
+        var systemUnderTest = new AdaptiveConcurrencyLimiter()
+            .withInitialLimit(2)
+            .withBackoffRatio(0.5)
+            // only the 429s shrink the limit, whatever the latencies here
+            .withTolerance(1_000_000);
+
+        // when
+        for (int i = 0; i < 20; i++) {
+            var first = systemUnderTest.acquire("a", System.nanoTime() + LATER);
+            var second = systemUnderTest.acquire("a", System.nanoTime() + LATER);
+            first.success();
+            second.success();
+        }
+        int grown = systemUnderTest.limit();
+        var first = systemUnderTest.acquire("a", System.nanoTime() + LATER);
+        var second = systemUnderTest.acquire("a", System.nanoTime() + LATER);
+        first.throttled();
+        second.throttled();
+
+        // then
+        Assertions.assertTrue(grown > 2, "grew to " + grown);
+        // both were in flight during the same congestion, so only one of them counts
+        Assertions.assertEquals(grown / 2, systemUnderTest.limit());
+        Assertions.assertEquals(0, systemUnderTest.inFlight());
+    }
+
+    @Test
+    void shouldShedWhenTheQueueIsFull() throws InterruptedException {
+        // given
+        var systemUnderTest = new AdaptiveConcurrencyLimiter().withInitialLimit(1).withMaxQueued(0);
+        var permit = systemUnderTest.acquire("a", System.nanoTime() + LATER);
+
+        // then
+        Assertions.assertThrows(RejectedExecutionException.class, () -> systemUnderTest.acquire("a", System.nanoTime() + LATER));
+        permit.dropped();
+        Assertions.assertDoesNotThrow(() -> systemUnderTest.acquire("a", System.nanoTime() + LATER));
+    }
+
+    @Test
+    void shouldShedWhenTheDeadlinePasses() throws InterruptedException {
+        // given
+        var systemUnderTest = new AdaptiveConcurrencyLimiter().withInitialLimit(1);
+        systemUnderTest.acquire("a", System.nanoTime() + LATER);
+
+        // when
+        long started = System.nanoTime();
+        Assertions.assertThrows(RejectedExecutionException.class,
+            () -> systemUnderTest.acquire("a", System.nanoTime() + Duration.ofMillis(100).toNanos()));
+
+        // then
+        Assertions.assertTrue(System.nanoTime() - started < Duration.ofSeconds(5).toNanos());
+        Assertions.assertEquals(0, systemUnderTest.queued());
+    }
+
+    @Test
+    void shouldGiveFreedPermitsToTheTypeWithFewestInFlight() throws Exception {
+        // given
+        var systemUnderTest = new AdaptiveConcurrencyLimiter().withInitialLimit(2);
+        var busy = systemUnderTest.acquire("busy", System.nanoTime() + LATER);
+        var alsoBusy = systemUnderTest.acquire("busy", System.nanoTime() + LATER);
+        List<String> granted = new CopyOnWriteArrayList<>();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> waiting = new CopyOnWriteArrayList<>();
+            for (String type : new String[]{"busy", "busy", "quiet"}) {
+                waiting.add(executor.submit(() -> {
+                    var permit = systemUnderTest.acquire(type, System.nanoTime() + LATER);
+                    granted.add(type);
+                    return permit;
+                }));
+                while (systemUnderTest.queued() < waiting.size()) {
+                    Thread.sleep(1);
+                }
+            }
+
+            // when
+            busy.dropped();
+            while (granted.isEmpty()) {
+                Thread.sleep(1);
+            }
+
+            // then
+            Assertions.assertEquals(List.of("quiet"), granted);
+            releaseWhenDone(waiting.getLast());
+            alsoBusy.dropped();
+            releaseWhenDone(waiting.get(0));
+            releaseWhenDone(waiting.get(1));
+        }
+    }
+
+    private static void releaseWhenDone(Future<?> future) throws ExecutionException, InterruptedException {
+        ((AdaptiveConcurrencyLimiter.Permit) future.get()).dropped();
+    }
+}
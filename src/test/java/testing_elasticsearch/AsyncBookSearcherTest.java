@@ -0,0 +1,107 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlAsyncClient;
+import co.elastic.clients.elasticsearch.esql.QueryRequest;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncBookSearcherTest {
+
+    static final String VERSION_8_15 = """
+        {"columns": [{"name": "major", "type": "keyword"}, {"name": "minor", "type": "keyword"}], "values": [["8", "15"]]}""";
+
+    ElasticsearchAsyncClient esClient;
+    ElasticsearchEsqlAsyncClient esql;
+
+    @BeforeEach
+    void setUpMocks() {
+        esClient = mock(ElasticsearchAsyncClient.class);
+        esql = mock(ElasticsearchEsqlAsyncClient.class);
+        when(esClient.esql()).thenReturn(esql);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+    }
+
+    @Test
+    void cannotCreateSearcherWithoutES_8_15() {
+        // when
+        when(esql.query(any(QueryRequest.class))).thenReturn(CompletableFuture.completedFuture(YearHistogramTest.response("""
+            {"columns": [{"name": "major", "type": "keyword"}, {"name": "minor", "type": "keyword"}], "values": [["8", "16"]]}""")));
+
+        // then
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> new AsyncBookSearcher(esClient));
+    }
+
+    @Test
+    void shouldGiveMostPublishedAuthorsWithoutBlocking() throws Exception {
+        // when
+        when(esql.query(argThat((QueryRequest r) -> r != null && r.query().equals(BookSearcher.VERSION_QUERY))))
+            .thenReturn(CompletableFuture.completedFuture(YearHistogramTest.response(VERSION_8_15)));
+        CompletableFuture<BinaryResponse> pending = new CompletableFuture<>();
+        when(esql.query(argThat((QueryRequest r) -> r != null && r.query().equals(BookSearcher.MOST_PUBLISHED_AUTHORS_QUERY))))
+            .thenReturn(pending);
+
+        var systemUnderTest = new AsyncBookSearcher(esClient);
+        var result = systemUnderTest.mostPublishedAuthorsInYears(1800, 2010);
+        Assertions.assertFalse(result.isDone());
+
+        pending.complete(YearHistogramTest.response("""
+            {
+              "columns": [
+                {"name": "first_published", "type": "integer"}, {"name": "last_published", "type": "integer"},
+                {"name": "times", "type": "long"}, {"name": "author", "type": "keyword"}
+              ],
+              "values": [[1902, 1930, 23, "Beatrix Potter"]]
+            }"""));
+
+        // then
+        Assertions.assertEquals(new BookSearcher.MostPublished("Beatrix Potter", 1902, 1930, 23), result.get().getFirst());
+    }
+
+    @Test
+    void shouldRejectRangesWiderThanTheQueryReturns() {
+        // given
+        when(esql.query(argThat((QueryRequest r) -> r != null && r.query().equals(BookSearcher.VERSION_QUERY))))
+            .thenReturn(CompletableFuture.completedFuture(YearHistogramTest.response(VERSION_8_15)));
+        var systemUnderTest = new AsyncBookSearcher(esClient);
+
+        // then
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> systemUnderTest.numberOfBooksPublishedInYears(0, BookSearcher.MAX_YEARS)
+        );
+    }
+
+    @Test
+    void shouldAbortRequestWhenTimedOut() {
+        // when
+        when(esql.query(argThat((QueryRequest r) -> r != null && r.query().equals(BookSearcher.VERSION_QUERY))))
+            .thenReturn(CompletableFuture.completedFuture(YearHistogramTest.response(VERSION_8_15)));
+        CompletableFuture<BinaryResponse> pending = new CompletableFuture<>();
+        when(esql.query(argThat((QueryRequest r) -> r != null && r.query().equals(BookSearcher.BOOKS_PUBLISHED_IN_YEAR_QUERY))))
+            .thenReturn(pending);
+
+        var systemUnderTest = new AsyncBookSearcher(esClient);
+        var result = systemUnderTest.numberOfBooksPublishedInYear(1999, Duration.ofMillis(50));
+
+        // then
+        var thrown = Assertions.assertThrows(ExecutionException.class, result::get);
+        Assertions.assertInstanceOf(TimeoutException.class, thrown.getCause());
+        Assertions.assertThrows(CancellationException.class, () -> pending.get(1, TimeUnit.SECONDS), "the HTTP request should be aborted");
+    }
+}
@@ -0,0 +1,76 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BookIngesterTest {
+
+    @Test
+    void shouldCountMalformedRowsAndIngestTheRest() throws IOException {
+        // given
+        byte[] csv = """
+            Title 1;Description 1;Author 1;1999;Publisher;4.5
+            Title 2;Description 2;Author 2;not a year;Publisher;3.0
+            Title 3;Description 3;Author 3;2001;Publisher;2.0;one column too many
+            Title 4;Description 4;Author 4;2004;Publisher;1.5
+            "Title 5;Description 5;Author 5;2005;Publisher;1.0
+            """.getBytes(StandardCharsets.UTF_8);
+        var systemUnderTest = new BookIngester(esClient());
+
+        // when
+        BookIngester.Report report = systemUnderTest.ingest(books(csv));
+
+        // then
+        Assertions.assertEquals(2, report.indexed());
+        Assertions.assertEquals(3, report.malformed());
+        Assertions.assertEquals(List.of(), report.failures());
+    }
+
+    private static MappingIterator<Book> books(byte[] csv) throws IOException {
+        CsvMapper csvMapper = new CsvMapper();
+        return csvMapper
+            .readerFor(Book.class)
+            .with(csvMapper.typedSchemaFor(Book.class).withColumnSeparator(';'))
+            .readValues(csv);
+    }
+
+    private static ElasticsearchClient esClient() {
+        ElasticsearchClient esClient = mock(ElasticsearchClient.class);
+        ElasticsearchTransport transport = mock(ElasticsearchTransport.class);
+        ElasticsearchIndicesClient indices = mock(ElasticsearchIndicesClient.class);
+
+        when(esClient._transport()).thenReturn(transport);
+        when(esClient.indices()).thenReturn(indices);
+        when(transport.jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(transport.performRequestAsync(any(), any(), any())).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(BulkResponse.of(r -> r
+                .errors(false)
+                .took(1)
+                .items(IntStream.range(0, request.operations().size())
+                    .mapToObj(i -> BulkResponseItem.of(item -> item.operationType(OperationType.Index).index("books").status(201)))
+                    .toList())));
+        });
+        return esClient;
+    }
+}
@@ -0,0 +1,138 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.util.BinaryData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BookPartitionsTest {
+
+    @Test
+    void shouldPickOnlyTheOverlappingPartitions() {
+        // given
+        var systemUnderTest = new BookPartitions();
+        for (int year : new int[]{1895, 1990, 1999, 2004, 2023}) {
+            systemUnderTest.add(year);
+        }
+
+        // then
+        Assertions.assertEquals("books-1990", systemUnderTest.indexFor(1999));
+        Assertions.assertEquals(List.of("books-1990", "books-2000"), systemUnderTest.indicesFor(1995, 2005));
+        Assertions.assertEquals(List.of("books-1890"), systemUnderTest.indicesFor(1850, 1950));
+        Assertions.assertEquals(List.of(), systemUnderTest.indicesFor(1960, 1989));
+        Assertions.assertEquals(List.of("books"), BookPartitions.NONE.indicesFor(1960, 1989));
+    }
+
+    @Test
+    void shouldLookAtTheAliasAgainWhenPartitionsAreMissing() throws IOException {
+        // given
+        Map<String, IndexAliases> behindAlias = new ConcurrentHashMap<>(Map.of("books-1990", IndexAliases.of(a -> a.aliases(Map.of()))));
+        ElasticsearchClient esClient = aliasedEsClient(behindAlias);
+        var systemUnderTest = BookPartitions.load(esClient, Duration.ZERO);
+        var rarelyRefreshed = BookPartitions.load(esClient, Duration.ofHours(1));
+
+        // when another process ingests books of the 2000s
+        behindAlias.put("books-2000", IndexAliases.of(a -> a.aliases(Map.of())));
+
+        // then
+        Assertions.assertEquals(List.of("books-1990"), systemUnderTest.indicesFor(1991, 1999));
+        Assertions.assertEquals(List.of("books-1990", "books-2000"), systemUnderTest.indicesFor(1995, 2005));
+        Assertions.assertEquals(List.of("books-1990"), rarelyRefreshed.indicesFor(1995, 2005));
+    }
+
+    @Test
+    void shouldIgnoreOtherIndicesBehindTheAlias() throws IOException {
+        // given
+        Map<String, IndexAliases> behindAlias = new ConcurrentHashMap<>();
+        for (String index : List.of("books-1990", "books_1990s-old", "books-2000-reindexed", "books-", "books-1995", "books-99999999999", "books_v2")) {
+            behindAlias.put(index, IndexAliases.of(a -> a.aliases(Map.of())));
+        }
+        var systemUnderTest = BookPartitions.load(aliasedEsClient(behindAlias), Duration.ZERO);
+
+        // when another process ingests books of the 2000s
+        behindAlias.put("books-2000", IndexAliases.of(a -> a.aliases(Map.of())));
+
+        // then
+        Assertions.assertEquals(List.of("books-1990", "books-2000"), systemUnderTest.indicesFor(1900, 2010));
+    }
+
+    @Test
+    void shouldRewriteQueriesToTheOverlappingPartitions() throws SQLException, IOException {
+        // given
+        var partitions = new BookPartitions();
+        partitions.add(1999);
+        partitions.add(2004);
+        List<String> sentQueries = new ArrayList<>();
+        var systemUnderTest = new BookSearcher(esClient(sentQueries), new BackendVersionCache(Duration.ZERO), new QueryMetrics(), partitions);
+
+        // when
+        int published = systemUnderTest.numberOfBooksPublishedInYear(1999);
+        int notPublished = systemUnderTest.numberOfBooksPublishedInYear(1975);
+        YearHistogram histogram = systemUnderTest.numberOfBooksPublishedInYears(1970, 1980);
+
+        // then
+        Assertions.assertEquals(42, published);
+        Assertions.assertEquals(0, notPublished);
+        Assertions.assertEquals(0, histogram.total());
+        Assertions.assertEquals(11, histogram.years());
+        Assertions.assertEquals(1, sentQueries.size());
+        Assertions.assertTrue(sentQueries.getFirst().startsWith("from books-1990\\n| where year == ?"), sentQueries.getFirst());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ElasticsearchClient aliasedEsClient(Map<String, IndexAliases> behindAlias) throws IOException {
+        ElasticsearchClient esClient = mock(ElasticsearchClient.class);
+        ElasticsearchIndicesClient indices = mock(ElasticsearchIndicesClient.class);
+
+        when(esClient.indices()).thenReturn(indices);
+        when(indices.existsAlias(any(Function.class))).thenReturn(new BooleanResponse(true));
+        when(indices.getAlias(any(Function.class))).thenAnswer(invocation -> GetAliasResponse.of(r -> r.result(Map.copyOf(behindAlias))));
+        return esClient;
+    }
+
+    private static ElasticsearchClient esClient(List<String> sentQueries) throws SQLException, IOException {
+        ElasticsearchClient esClient = mock(ElasticsearchClient.class);
+        ElasticsearchEsqlClient esql = mock(ElasticsearchEsqlClient.class);
+        ElasticsearchTransport transport = mock(ElasticsearchTransport.class);
+        ResultSet versionResultSet = mock(ResultSet.class);
+
+        when(esClient.esql()).thenReturn(esql);
+        when(esClient._transport()).thenReturn(transport);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), eq(BookSearcher.VERSION_QUERY))).thenReturn(versionResultSet);
+        when(versionResultSet.next()).thenReturn(true);
+        when(versionResultSet.getInt(1)).thenReturn(8);
+        when(versionResultSet.getInt(2)).thenReturn(15);
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            String body = StandardCharsets.UTF_8.decode(invocation.<BinaryData>getArgument(0).asByteBuffer()).toString();
+            sentQueries.add(body.substring("{\"query\":\"".length()));
+            return YearHistogramTest.response("""
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""");
+        });
+        return esClient;
+    }
+}
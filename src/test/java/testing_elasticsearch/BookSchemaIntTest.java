@@ -0,0 +1,121 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+public class BookSchemaIntTest {
+
+    // the migrations run against aliases of their own, so the shared books stay as they are
+    static final String ALIAS = "schema-test-books";
+
+    static BooksFixture books;
+
+    RestClientTransport transport;
+    ElasticsearchClient client;
+
+    @BeforeAll
+    static void startContainer() {
+        books = BooksFixture.shared();
+    }
+
+    @BeforeEach
+    void setupClient() {
+        transport = books.newTransport();
+        client = new ElasticsearchClient(transport);
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        // deleting takes the names of the indices, not patterns nor aliases
+        List<String> indices = List.copyOf(client.indices().get(g -> g.index(ALIAS + "*")).result().keySet());
+        if (!indices.isEmpty()) {
+            client.indices().delete(d -> d.index(indices));
+        }
+        transport.close();
+    }
+
+    @Test
+    void shouldCreateTheCurrentIndexWhenThereIsNone() throws IOException {
+        // when
+        String migrated = BookSchema.migrate(client, ALIAS);
+
+        // then
+        Assertions.assertEquals(ALIAS + "_v" + BookSchema.VERSION, migrated);
+        Assertions.assertEquals(Set.of(migrated), client.indices().getAlias(a -> a.name(ALIAS)).result().keySet());
+        Assertions.assertEquals(BookSchema.VERSION, BookSchema.version(client, migrated));
+    }
+
+    @Test
+    void shouldMoveLegacyIndexBehindTheAlias() throws IOException {
+        // given
+        client.indices().create(c -> c.index(ALIAS).mappings(legacyMapping()));
+        index(ALIAS, 25);
+
+        // when
+        String migrated = BookSchema.migrate(client, ALIAS);
+
+        // then
+        Assertions.assertEquals(Set.of(migrated), client.indices().getAlias(a -> a.name(ALIAS)).result().keySet());
+        Assertions.assertEquals(25, client.count(c -> c.index(ALIAS)).count());
+        Assertions.assertTrue(authorOf(migrated).isKeyword());
+    }
+
+    @Test
+    void shouldReindexOlderVersionAndDeleteIt() throws IOException {
+        // given
+        String v1 = ALIAS + "_v1";
+        client.indices().create(c -> c.index(v1).mappings(legacyMapping()).aliases(ALIAS, a -> a));
+        index(v1, 40);
+
+        // when
+        String migrated = BookSchema.migrate(client, ALIAS);
+
+        // then
+        Assertions.assertEquals(Set.of(migrated), client.indices().getAlias(a -> a.name(ALIAS)).result().keySet());
+        Assertions.assertEquals(40, client.count(c -> c.index(ALIAS)).count());
+        Assertions.assertFalse(client.indices().exists(e -> e.index(v1)).value());
+        Assertions.assertEquals(migrated, BookSchema.migrate(client, ALIAS), "migrating again changes nothing");
+    }
+
+    @Test
+    void shouldRefuseToMigrateSeveralIndicesBehindTheAlias() throws IOException {
+        // given
+        client.indices().create(c -> c.index(ALIAS + "-1990").aliases(ALIAS, a -> a));
+        client.indices().create(c -> c.index(ALIAS + "-2000").aliases(ALIAS, a -> a));
+
+        // then
+        Assertions.assertThrows(IllegalStateException.class, () -> BookSchema.migrate(client, ALIAS));
+        Assertions.assertFalse(client.indices().exists(e -> e.index(ALIAS + "_v" + BookSchema.VERSION)).value());
+    }
+
+    // the mapping from before there was a schema version
+    private static TypeMapping legacyMapping() {
+        return TypeMapping.of(m -> m
+            .properties("title", p -> p.text(t -> t))
+            .properties("author", p -> p.text(t -> t))
+            .properties("year", p -> p.short_(s -> s)));
+    }
+
+    private void index(String index, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Book book = new Book("Title " + i, "Description " + i, "Author " + i % 5, 1900 + i, "Publisher", 3);
+            client.index(r -> r.index(index).document(book));
+        }
+        client.indices().refresh(r -> r.index(index));
+    }
+
+    private Property authorOf(String index) throws IOException {
+        return client.indices().getMapping(g -> g.index(index)).get(index).mappings().properties().get("author");
+    }
+}
@@ -0,0 +1,105 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.CountResponse;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import co.elastic.clients.elasticsearch.indices.DeleteIndexRequest;
+import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.elasticsearch.indices.PutIndicesSettingsRequest;
+import co.elastic.clients.elasticsearch.indices.SegmentSortOrder;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
+import co.elastic.clients.elasticsearch.tasks.ElasticsearchTasksClient;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.util.ObjectBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BookSchemaTest {
+
+    @Test
+    void shouldAggregateAuthorsOverDocValuesAndSortByYear() {
+        // when
+        TypeMapping mapping = BookSchema.mapping();
+        IndexSettings settings = BookSchema.settings();
+
+        // then
+        Property author = mapping.properties().get("author");
+        Assertions.assertTrue(author.isKeyword());
+        Assertions.assertTrue(author.keyword().fields().get("text").isText());
+        Assertions.assertTrue(mapping.properties().get("year").isShort());
+        Assertions.assertEquals(BookSchema.VERSION, mapping.meta().get(BookSchema.VERSION_META).to(Integer.class));
+        Assertions.assertEquals(List.of("year"), settings.sort().field());
+        Assertions.assertEquals(List.of(SegmentSortOrder.Asc), settings.sort().order());
+        Assertions.assertEquals("books_v2", BookSchema.indexOf(2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldDropNewIndexAndUnblockOldOneWhenMovingTheAliasFails() throws IOException {
+        // given the books of version 1 behind the alias
+        ElasticsearchClient esClient = mock(ElasticsearchClient.class);
+        ElasticsearchIndicesClient indices = mock(ElasticsearchIndicesClient.class);
+        ElasticsearchTasksClient tasks = mock(ElasticsearchTasksClient.class);
+        GetTasksResponse done = mock(GetTasksResponse.class);
+        List<String> deleted = new ArrayList<>();
+        List<String> blocks = new ArrayList<>();
+
+        when(esClient.indices()).thenReturn(indices);
+        when(esClient.tasks()).thenReturn(tasks);
+        when(esClient._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(indices.existsAlias(any(Function.class))).thenReturn(new BooleanResponse(true), new BooleanResponse(false));
+        when(indices.getAlias(any(Function.class))).thenReturn(GetAliasResponse.of(r -> r
+            .result(Map.of("books_v1", IndexAliases.of(a -> a.aliases(Map.of()))))));
+        when(indices.delete(any(Function.class))).thenAnswer(invocation -> {
+            var request = invocation.<Function<DeleteIndexRequest.Builder, ObjectBuilder<DeleteIndexRequest>>>getArgument(0)
+                .apply(new DeleteIndexRequest.Builder()).build();
+            deleted.addAll(request.index());
+            return null;
+        });
+        when(indices.putSettings(any(Function.class))).thenAnswer(invocation -> {
+            var request = invocation.<Function<PutIndicesSettingsRequest.Builder, ObjectBuilder<PutIndicesSettingsRequest>>>getArgument(0)
+                .apply(new PutIndicesSettingsRequest.Builder()).build();
+            if (request.settings().blocks() != null) {
+                blocks.add(request.index() + " " + request.settings().blocks().write());
+            }
+            return null;
+        });
+        when(indices.getSettings(any(Function.class))).thenReturn(GetIndicesSettingsResponse.of(r -> r
+            .result(Map.of("books_v2", IndexState.of(i -> i.settings(BookSchema.settings()))))));
+        when(esClient.reindex(any(Function.class))).thenReturn(ReindexResponse.of(r -> r.task("node:1")));
+        when(tasks.get(any(Function.class))).thenReturn(done);
+        when(done.completed()).thenReturn(true);
+        when(done.response()).thenReturn(JsonData.fromJson("""
+            {"created": 3, "timed_out": false, "failures": []}"""));
+        when(esClient.count(any(Function.class))).thenReturn(CountResponse.of(r -> r
+            .count(3)
+            .shards(sh -> sh.total(1).successful(1).failed(0))));
+        when(indices.updateAliases(any(Function.class))).thenThrow(new IOException("connection reset"));
+
+        // when
+        Assertions.assertThrows(IOException.class, () -> BookSchema.migrate(esClient, "books"));
+
+        // then
+        Assertions.assertEquals(List.of("books_v2", "books_v2"), deleted, "the leftover check, then dropping the copy");
+        Assertions.assertEquals(List.of("[books_v1] true", "[books_v1] false"), blocks);
+    }
+}
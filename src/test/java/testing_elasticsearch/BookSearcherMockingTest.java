@@ -9,11 +9,14 @@ import org.junit.jupiter.api.Test;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 
 public class BookSearcherMockingTest {
 
@@ -87,4 +90,37 @@ public class BookSearcherMockingTest {
         );
 
     }
+
+    @Test
+    void shouldProbeBackendOnlyOncePerCluster() throws SQLException, IOException {
+        // when
+        when(esClient.esql()).thenReturn(esql);
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), anyString())).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true).thenReturn(false);
+        when(mockResultSet.getInt(1)).thenReturn(8);
+        when(mockResultSet.getInt(2)).thenReturn(15);
+        BackendVersionCache versionCache = new BackendVersionCache(Duration.ofMinutes(1));
+
+        new BookSearcher(esClient, versionCache);
+        new BookSearcher(esClient, versionCache);
+
+        // then
+        verify(esql, times(1)).query(eq(ResultSetEsqlAdapter.INSTANCE), anyString());
+    }
+
+    @Test
+    void shouldProbeBackendAgainWhenVersionExpired() throws SQLException, IOException {
+        // when
+        when(esClient.esql()).thenReturn(esql);
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), anyString())).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true);
+        when(mockResultSet.getInt(1)).thenReturn(8);
+        when(mockResultSet.getInt(2)).thenReturn(15).thenReturn(16);
+        BackendVersionCache versionCache = new BackendVersionCache(Duration.ZERO);
+
+        new BookSearcher(esClient, versionCache);
+
+        // then
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> new BookSearcher(esClient, versionCache));
+    }
 }
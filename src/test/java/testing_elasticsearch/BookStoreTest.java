@@ -0,0 +1,38 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BookStoreTest {
+
+    @Test
+    void shouldSkipMalformedRowsLikeTheIngester() throws IOException {
+        // given the rows of BookIngesterTest
+        byte[] csv = """
+            Title 1;Description 1;Author 1;1999;Publisher;4.5
+            Title 2;Description 2;Author 2;not a year;Publisher;3.0
+            Title 3;Description 3;Author 3;2001;Publisher;2.0;one column too many
+            Title 4;Description 4;Author 4;2004;Publisher;1.5
+            "Title 5;Description 5;Author 5;2005;Publisher;1.0
+            """.getBytes(StandardCharsets.UTF_8);
+        CsvMapper csvMapper = new CsvMapper();
+        MappingIterator<Book> books = csvMapper
+            .readerFor(Book.class)
+            .with(csvMapper.typedSchemaFor(Book.class).withColumnSeparator(';'))
+            .readValues(csv);
+
+        // when
+        var systemUnderTest = BookStore.load(books);
+
+        // then
+        Assertions.assertEquals(2, systemUnderTest.size());
+        Assertions.assertEquals(2, systemUnderTest.authors());
+        Assertions.assertEquals(1, systemUnderTest.countInYear(1999));
+        Assertions.assertEquals(1, systemUnderTest.countInYear(2004));
+    }
+}
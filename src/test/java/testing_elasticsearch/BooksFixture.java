@@ -0,0 +1,261 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpUtils;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.apache.http.HttpHost;
+import org.testcontainers.containers.BindMode;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code books}, shared by all the integration tests: an index migrated by {@link BookSchema#migrate}, behind the alias.
+ * The dataset isn't part of the repository: unless it's put in {@code src/test/resources/datasets/books.csv}, the first run
+ * downloads it from {@link #DATASET_URL}, which needs network access, into {@code target/datasets}, where later runs find it.
+ * The index is built once, and then found again rather than rebuilt:
+ * <ul>
+ *     <li>within a JVM, the container and the index are simply kept for the next test class;</li>
+ *     <li>across JVMs (forks, reruns), the container is reused when Testcontainers allows it
+ *     ({@code testcontainers.reuse.enable=true} in {@code ~/.testcontainers.properties}), and the index is
+ *     otherwise restored from a snapshot in {@code target/books-snapshots}, which takes seconds instead of minutes.</li>
+ * </ul>
+ * Everything is keyed by a checksum of the image, the mapping and the dataset, so changing any of them builds
+ * the index anew. Tests which modify the index should {@link #restore()} it when they're done.
+ */
+final class BooksFixture {
+
+    static final String ELASTICSEARCH_IMAGE = "docker.elastic.co/elasticsearch/elasticsearch:8.15.0";
+    static final String ALIAS = BookSchema.ALIAS;
+    static final String INDEX = BookSchema.indexOf(BookSchema.VERSION);
+    static final JacksonJsonpMapper JSONP_MAPPER = new JacksonJsonpMapper();
+
+    // a copy put with the test resources is used as it is; otherwise it's downloaded once, and kept with the build output
+    static final String DATASET_RESOURCE = "/datasets/books.csv";
+    static final String DATASET_URL = "https://raw.githubusercontent.com/elastic/elasticsearch-php-examples/main/examples/ESQL/data/books.csv";
+    static final Path DATASET_CACHE = Path.of("target", "datasets", "books.csv").toAbsolutePath();
+
+    static final String SNAPSHOT_REPOSITORY = "books-fixture";
+    static final Path SNAPSHOT_DIRECTORY = Path.of("target", "books-snapshots").toAbsolutePath();
+    static final String SNAPSHOT_DIRECTORY_IN_CONTAINER = "/usr/share/elasticsearch/snapshots";
+
+    private static BooksFixture shared;
+
+    private final ElasticsearchContainer elasticsearch;
+    private final String checksum;
+    private final byte[] dataset;
+
+    private BooksFixture(byte[] dataset) throws IOException {
+        this.dataset = dataset;
+        this.checksum = checksum(ELASTICSEARCH_IMAGE,
+            JsonpUtils.toJsonString(BookSchema.mapping(), JSONP_MAPPER) + JsonpUtils.toJsonString(BookSchema.settings(), JSONP_MAPPER),
+            dataset);
+        Files.createDirectories(SNAPSHOT_DIRECTORY);
+        // Elasticsearch runs as another user in the container, and has to write the snapshots
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(SNAPSHOT_DIRECTORY, PosixFilePermissions.fromString("rwxrwxrwx"));
+        }
+        this.elasticsearch = new ElasticsearchContainer(ELASTICSEARCH_IMAGE)
+            .withEnv("path.repo", SNAPSHOT_DIRECTORY_IN_CONTAINER)
+            .withFileSystemBind(SNAPSHOT_DIRECTORY.toString(), SNAPSHOT_DIRECTORY_IN_CONTAINER, BindMode.READ_WRITE)
+            .withLabel("testing-elasticsearch.books", checksum)
+            .withReuse(true);
+    }
+
+    /**
+     * The fixture, with the container started and the index ready.
+     */
+    static synchronized BooksFixture shared() {
+        if (shared == null) {
+            try {
+                BooksFixture fixture = new BooksFixture(dataset());
+                fixture.elasticsearch.start();
+                fixture.prepare();
+                shared = fixture;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * A new transport to the container, to be closed by the caller.
+     */
+    RestClientTransport newTransport() {
+        return new RestClientTransport(new ElasticsearchRestClientBuilder()
+            .withHttpHost(new HttpHost(elasticsearch.getHost(), elasticsearch.getMappedPort(9200), "https"))
+            .withSslContext(elasticsearch.createSslContextFromCa())
+            .withUsernameAndPassword("elastic", System.getenv().getOrDefault("ESPSWD", "changeme"))
+            .build(), JSONP_MAPPER);
+    }
+
+    /**
+     * Puts the index back the way it was built, from its snapshot.
+     */
+    void restore() throws IOException {
+        try (RestClientTransport transport = newTransport()) {
+            ElasticsearchClient client = new ElasticsearchClient(transport);
+            delete(client);
+            restoreSnapshot(client);
+        }
+    }
+
+    private void prepare() throws IOException {
+        LocalTime started = LocalTime.now();
+        try (RestClientTransport transport = newTransport()) {
+            ElasticsearchClient client = new ElasticsearchClient(transport);
+            client.snapshot().createRepository(r -> r
+                .name(SNAPSHOT_REPOSITORY)
+                .repository(repository -> repository.fs(fs -> fs.settings(s -> s.location(SNAPSHOT_DIRECTORY_IN_CONTAINER)))));
+            if (!checksum.equals(indexChecksum(client))) {
+                delete(client);
+                if (snapshotExists(client)) {
+                    restoreSnapshot(client);
+                } else {
+                    build(client);
+                    client.snapshot().create(c -> c
+                        .repository(SNAPSHOT_REPOSITORY)
+                        .snapshot(snapshotName())
+                        .indices(INDEX)
+                        .waitForCompletion(true));
+                }
+            }
+        }
+        System.out.println("Books ready in " + Duration.between(started, LocalTime.now()).toMillis() + "ms");
+    }
+
+    private void build(ElasticsearchClient client) throws IOException {
+        // the checksum goes with the mapping, so that a reused container tells whether its index is still good
+        String index = BookSchema.migrate(client, ALIAS, Map.of("checksum", JsonData.of(checksum)));
+
+        MappingIterator<Book> it = books();
+        BookIngester.Report report;
+        BookSchema.BulkLoad load = BookSchema.bulkLoad(client, index);
+        try {
+            report = new BookIngester(client).ingest(it);
+        } finally {
+            load.close();
+        }
+        System.out.println("Indexed " + report.indexed() + " books, skipped " + report.malformed() + " malformed rows, " + report.failures().size() + " failed");
+    }
+
+    /**
+     * The books of the dataset, as they're indexed.
+     */
+    MappingIterator<Book> books() throws IOException {
+        // this is to tell what's the structure of our CSV data
+        CsvMapper csvMapper = new CsvMapper();
+        CsvSchema schema = csvMapper
+            .typedSchemaFor(Book.class)
+            .withHeader()
+            .withColumnSeparator(';')
+            .withSkipFirstDataRow(true);
+        return csvMapper
+            .readerFor(Book.class)
+            .with(schema)
+            .readValues(new InputStreamReader(new ByteArrayInputStream(dataset), StandardCharsets.UTF_8));
+    }
+
+    private String indexChecksum(ElasticsearchClient client) throws IOException {
+        IndexState index = client.indices().get(g -> g.index(ALIAS).ignoreUnavailable(true)).get(INDEX);
+        if (index == null || index.mappings() == null || !(index.mappings().meta().get("checksum") instanceof JsonData value)) {
+            return null;
+        }
+        return value.to(String.class);
+    }
+
+    // by name, as neither the alias nor patterns can be deleted; that's also what a container from before the alias has
+    private void delete(ElasticsearchClient client) throws IOException {
+        List<String> indices = List.copyOf(client.indices().get(g -> g.index(ALIAS).ignoreUnavailable(true)).result().keySet());
+        if (!indices.isEmpty()) {
+            client.indices().delete(d -> d.index(indices));
+        }
+    }
+
+    private boolean snapshotExists(ElasticsearchClient client) throws IOException {
+        return !client.snapshot()
+            .get(g -> g.repository(SNAPSHOT_REPOSITORY).snapshot(snapshotName()).ignoreUnavailable(true))
+            .snapshots()
+            .isEmpty();
+    }
+
+    private void restoreSnapshot(ElasticsearchClient client) throws IOException {
+        client.snapshot().restore(r -> r
+            .repository(SNAPSHOT_REPOSITORY)
+            .snapshot(snapshotName())
+            .indices(INDEX)
+            // the alias is part of the index in the snapshot, and comes back with it
+            .includeAliases(true)
+            .waitForCompletion(true));
+    }
+
+    private String snapshotName() {
+        return INDEX + "-" + checksum;
+    }
+
+    static byte[] dataset() throws IOException {
+        try (InputStream bundled = BooksFixture.class.getResourceAsStream(DATASET_RESOURCE)) {
+            if (bundled != null) {
+                return bundled.readAllBytes();
+            }
+        }
+        if (!Files.exists(DATASET_CACHE)) {
+            Files.createDirectories(DATASET_CACHE.getParent());
+            Path download = Files.createTempFile(DATASET_CACHE.getParent(), "books", ".csv");
+            try (HttpClient httpClient = HttpClient.newHttpClient()) {
+                HttpResponse<Path> response = httpClient.send(
+                    HttpRequest.newBuilder(URI.create(DATASET_URL)).build(), HttpResponse.BodyHandlers.ofFile(download));
+                // an error page kept as the dataset would only fail later, and on every run
+                if (response.statusCode() != 200) {
+                    Files.delete(download);
+                    throw new IOException("Downloading " + DATASET_URL + " failed with status " + response.statusCode());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            Files.move(download, DATASET_CACHE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return Files.readAllBytes(DATASET_CACHE);
+    }
+
+    static String checksum(String image, String mapping, byte[] dataset) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((image + "\n" + mapping + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(dataset);
+            // snapshot names are lowercase, and don't need all of it
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.util.BinaryData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CachingBookSearcherTest {
+
+    ElasticsearchClient esClient;
+    List<String> sentParams;
+    Runnable whileQuerying;
+
+    @BeforeEach
+    void setUpMocks() throws SQLException, IOException {
+        sentParams = new ArrayList<>();
+        whileQuerying = () -> {
+        };
+        esClient = esClient();
+    }
+
+    // every client has a transport of its own, which makes it a cluster of its own as far as the cache is concerned
+    private ElasticsearchClient esClient() throws SQLException, IOException {
+        ElasticsearchClient esClient = mock(ElasticsearchClient.class);
+        ElasticsearchEsqlClient esql = mock(ElasticsearchEsqlClient.class);
+        ElasticsearchTransport transport = mock(ElasticsearchTransport.class);
+        ResultSet versionResultSet = mock(ResultSet.class);
+
+        when(esClient.esql()).thenReturn(esql);
+        when(esClient._transport()).thenReturn(transport);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), eq(BookSearcher.VERSION_QUERY))).thenReturn(versionResultSet);
+        when(versionResultSet.next()).thenReturn(true);
+        when(versionResultSet.getInt(1)).thenReturn(8);
+        when(versionResultSet.getInt(2)).thenReturn(15);
+
+        // the prepared query goes straight to the transport, with its pre-encoded body; that body lives
+        // in a pooled buffer, so it has to be read when it's sent, not when verifying
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            String body = StandardCharsets.UTF_8.decode(invocation.<BinaryData>getArgument(0).asByteBuffer()).toString();
+            sentParams.add(body.substring(body.lastIndexOf('[') + 1, body.lastIndexOf(']')));
+            whileQuerying.run();
+            return YearHistogramTest.response("""
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""");
+        });
+        return esClient;
+    }
+
+    private long sent(String params) {
+        return sentParams.stream().filter(params::equals).count();
+    }
+
+    @Test
+    void shouldAnswerRepeatedQueryFromCache() throws IOException {
+        // given
+        var cache = new BookSearcherCache(100, 1024 * 1024, Duration.ofMinutes(1));
+        var systemUnderTest = new CachingBookSearcher(esClient, cache);
+
+        // when
+        Assertions.assertEquals(42, systemUnderTest.numberOfBooksPublishedInYear(1999));
+        Assertions.assertEquals(42, systemUnderTest.numberOfBooksPublishedInYear(1999));
+
+        // then
+        Assertions.assertEquals(1, sent("1999"));
+        Assertions.assertEquals(new BookSearcherCache.Stats(1, 1, 0, 1, 16), cache.stats());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedWhenFull() throws IOException {
+        // given
+        var cache = new BookSearcherCache(2, 1024 * 1024, Duration.ofMinutes(1));
+        var systemUnderTest = new CachingBookSearcher(esClient, cache);
+
+        // when
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        systemUnderTest.numberOfBooksPublishedInYear(2000);
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        systemUnderTest.numberOfBooksPublishedInYear(2001);
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        systemUnderTest.numberOfBooksPublishedInYear(2000);
+
+        // then
+        Assertions.assertEquals(1, sent("1999"));
+        Assertions.assertEquals(2, sent("2000"));
+        Assertions.assertEquals(2, cache.stats().evictions());
+    }
+
+    @Test
+    void shouldQueryAgainAfterInvalidation() throws IOException {
+        // given
+        var cache = new BookSearcherCache(100, 1024 * 1024, Duration.ofMinutes(1));
+        var systemUnderTest = new CachingBookSearcher(esClient, cache);
+
+        // when
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        cache.invalidateAll();
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+
+        // then
+        Assertions.assertEquals(2, sent("1999"));
+    }
+
+    @Test
+    void shouldNotKeepResultOfQueryInFlightWhileInvalidated() throws IOException {
+        // given
+        var cache = new BookSearcherCache(100, 1024 * 1024, Duration.ofMinutes(1));
+        var systemUnderTest = new CachingBookSearcher(esClient, cache);
+        // e.g. ingestion refreshed the index while the first query ran
+        whileQuerying = cache::invalidateAll;
+
+        // when
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        whileQuerying = () -> {
+        };
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+        systemUnderTest.numberOfBooksPublishedInYear(1999);
+
+        // then
+        Assertions.assertEquals(2, sent("1999"));
+    }
+
+    @Test
+    void shouldNotShareResultsBetweenClustersOrPartitions() throws SQLException, IOException {
+        // given
+        var cache = new BookSearcherCache(100, 1024 * 1024, Duration.ofMinutes(1));
+        var versionCache = new BackendVersionCache(Duration.ZERO);
+        var partitions = new BookPartitions();
+        partitions.add(1999);
+        var oneCluster = new CachingBookSearcher(esClient, cache);
+        var otherCluster = new CachingBookSearcher(esClient(), cache);
+        var partitioned = new CachingBookSearcher(esClient, versionCache, new QueryMetrics(), partitions, cache);
+
+        // when
+        oneCluster.numberOfBooksPublishedInYear(1999);
+        otherCluster.numberOfBooksPublishedInYear(1999);
+        partitioned.numberOfBooksPublishedInYear(1999);
+        oneCluster.numberOfBooksPublishedInYear(1999);
+
+        // then
+        Assertions.assertEquals(3, sent("1999"));
+        Assertions.assertEquals(3, cache.stats().entries());
+    }
+}
@@ -0,0 +1,171 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.util.BinaryData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CoalescingBookSearcherTest {
+
+    static final int CALLERS = 50;
+
+    ElasticsearchClient esClient;
+    ElasticsearchTransport transport;
+    QueryMetrics metrics;
+    CountDownLatch respond;
+    AtomicInteger requests;
+
+    @BeforeEach
+    void setUpMocks() throws SQLException, IOException {
+        esClient = mock(ElasticsearchClient.class);
+        var esql = mock(ElasticsearchEsqlClient.class);
+        var versionResultSet = mock(ResultSet.class);
+        transport = mock(ElasticsearchTransport.class);
+        metrics = new QueryMetrics();
+        respond = new CountDownLatch(1);
+        requests = new AtomicInteger();
+
+        when(esClient.esql()).thenReturn(esql);
+        when(esClient._transport()).thenReturn(transport);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), eq(BookSearcher.VERSION_QUERY))).thenReturn(versionResultSet);
+        when(versionResultSet.next()).thenReturn(true);
+        when(versionResultSet.getInt(1)).thenReturn(8);
+        when(versionResultSet.getInt(2)).thenReturn(15);
+    }
+
+    @Test
+    void shouldSendIdenticalConcurrentQueriesOnce() throws Exception {
+        // given
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            requests.incrementAndGet();
+            respond.await();
+            return YearHistogramTest.response("""
+                {
+                  "columns": [
+                    {"name": "first_published", "type": "integer"}, {"name": "last_published", "type": "integer"},
+                    {"name": "times", "type": "long"}, {"name": "author", "type": "keyword"}
+                  ],
+                  "values": [[1902, 1930, 23, "Beatrix Potter"]]
+                }""");
+        });
+        var systemUnderTest = new CoalescingBookSearcher(esClient, new BackendVersionCache(Duration.ofMinutes(1)), metrics);
+
+        // when
+        List<List<BookSearcher.MostPublished>> results = callConcurrently(() -> systemUnderTest.mostPublishedAuthorsInYears(1800, 2010));
+
+        // then
+        Assertions.assertEquals(1, requests.get());
+        Assertions.assertEquals(CALLERS - 1, metrics.query(BookSearcher.MOST_PUBLISHED_AUTHORS).coalesced.sum());
+        for (List<BookSearcher.MostPublished> result : results) {
+            Assertions.assertEquals(List.of(new BookSearcher.MostPublished("Beatrix Potter", 1902, 1930, 23)), result);
+        }
+    }
+
+    @Test
+    void shouldShareFailureAndQueryAgainAfterIt() throws Exception {
+        // given
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            if (requests.incrementAndGet() == 1) {
+                respond.await();
+                throw new IOException("connection reset");
+            }
+            return YearHistogramTest.response("""
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""");
+        });
+        var systemUnderTest = new CoalescingBookSearcher(esClient, new BackendVersionCache(Duration.ofMinutes(1)), metrics);
+
+        // when
+        List<Object> results = callConcurrently(() -> {
+            try {
+                return systemUnderTest.numberOfBooksPublishedInYear(1999);
+            } catch (RuntimeException e) {
+                return e;
+            }
+        });
+
+        // then
+        for (Object result : results) {
+            Assertions.assertInstanceOf(IOException.class, ((RuntimeException) result).getCause());
+        }
+        Assertions.assertEquals(42, systemUnderTest.numberOfBooksPublishedInYear(1999));
+        Assertions.assertEquals(2, requests.get());
+    }
+
+    @Test
+    void shouldCoalesceQueriesOfPartitionedCachingSearcher() throws Exception {
+        // given
+        List<String> sentQueries = new CopyOnWriteArrayList<>();
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            requests.incrementAndGet();
+            sentQueries.add(StandardCharsets.UTF_8.decode(invocation.<BinaryData>getArgument(0).asByteBuffer()).toString());
+            respond.await();
+            return YearHistogramTest.response("""
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""");
+        });
+        var partitions = new BookPartitions();
+        partitions.add(1999);
+        var cache = new BookSearcherCache(100, 1024 * 1024, Duration.ofMinutes(1));
+        var systemUnderTest = new CoalescingBookSearcher(
+            new CachingBookSearcher(esClient, new BackendVersionCache(Duration.ofMinutes(1)), metrics, partitions, cache));
+
+        // when
+        List<Integer> results = callConcurrently(() -> systemUnderTest.numberOfBooksPublishedInYear(1999));
+        int cached = systemUnderTest.numberOfBooksPublishedInYear(1999);
+
+        // then
+        Assertions.assertEquals(List.of(42), results.stream().distinct().toList());
+        Assertions.assertEquals(42, cached);
+        Assertions.assertEquals(1, requests.get());
+        Assertions.assertTrue(sentQueries.getFirst().startsWith("{\"query\":\"from books-1990\\n"), sentQueries.getFirst());
+        Assertions.assertSame(partitions, systemUnderTest.partitions());
+        Assertions.assertSame(metrics, systemUnderTest.metrics());
+    }
+
+    /**
+     * Starts all callers, waits until all but the first have attached to its query, then lets it respond.
+     */
+    private <T> List<T> callConcurrently(Callable<T> call) throws InterruptedException, ExecutionException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> calls = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                calls.add(executor.submit(call));
+            }
+            while (metrics.queries().values().stream().mapToLong(stats -> stats.coalesced.sum()).sum() < CALLERS - 1) {
+                Thread.sleep(1);
+            }
+            respond.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> result : calls) {
+                results.add(result.get());
+            }
+            return results;
+        }
+    }
+}
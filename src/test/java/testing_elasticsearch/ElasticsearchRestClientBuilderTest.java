@@ -0,0 +1,188 @@
+package testing_elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class ElasticsearchRestClientBuilderTest {
+
+    List<HttpServer> nodes;
+    Map<Integer, AtomicInteger> requestsPerNode;
+    List<String> contentEncodings;
+
+    @BeforeEach
+    void startFakeNodes() throws IOException {
+        nodes = new ArrayList<>();
+        requestsPerNode = new ConcurrentHashMap<>();
+        contentEncodings = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            HttpServer node = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            node.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            node.createContext("/", exchange -> {
+                requestsPerNode.computeIfAbsent(node.getAddress().getPort(), port -> new AtomicInteger()).incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                contentEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+                respond(exchange, "{}");
+            });
+            node.createContext("/slow", exchange -> {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, "{}");
+            });
+            node.start();
+            nodes.add(node);
+        }
+        // every node knows about the first two only, which is what sniffing should end up with
+        for (HttpServer node : nodes) {
+            node.createContext("/_nodes/http", exchange -> respond(exchange, """
+                {"nodes": {%s, %s}}""".formatted(nodeInfo(nodes.get(0)), nodeInfo(nodes.get(1)))));
+        }
+    }
+
+    @AfterEach
+    void stopFakeNodes() {
+        nodes.forEach(node -> node.stop(0));
+    }
+
+    @Test
+    void shouldSpreadRequestsOverAllHosts() throws IOException {
+        // given
+        try (RestClient restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHosts(nodes.stream().map(HedgingTransportTest::hostOf).toArray(HttpHost[]::new))
+            .withMaxConnectionsPerRoute(50)
+            .withMaxConnectionsTotal(150)
+            .withIoThreads(2)
+            .withConnectTimeout(Duration.ofSeconds(1))
+            .withSocketTimeout(Duration.ofSeconds(30))
+            .withKeepAlive(Duration.ofMinutes(1))
+            .withCompression(true)
+            .build()) {
+
+            // when
+            for (int i = 0; i < 9; i++) {
+                Request request = new Request("POST", "/books/_search");
+                request.setEntity(new StringEntity("{}", ContentType.APPLICATION_JSON));
+                restClient.performRequest(request);
+            }
+
+            // then
+            Assertions.assertEquals(3, restClient.getNodes().size());
+            Assertions.assertEquals(HedgingTransportTest.hostOf(nodes.get(1)), restClient.getNodes().get(1).getHost());
+            for (HttpServer node : nodes) {
+                Assertions.assertEquals(3, requestsPerNode.get(node.getAddress().getPort()).get());
+            }
+            Assertions.assertEquals(List.of("gzip"), contentEncodings.stream().distinct().toList());
+        }
+    }
+
+    @Test
+    void shouldGiveUpOnSlowResponses() throws IOException {
+        // given
+        try (RestClient restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHost(HedgingTransportTest.hostOf(nodes.getFirst()))
+            .withSocketTimeout(Duration.ofMillis(200))
+            .build()) {
+
+            // then
+            // the client checks for timeouts once a second, which is still well before the response
+            Assertions.assertThrows(SocketTimeoutException.class, () -> restClient.performRequest(new Request("GET", "/slow")));
+        }
+    }
+
+    @Test
+    void shouldSniffNodesWithTheSchemeOfTheHosts() throws IOException, InterruptedException {
+        // given
+        var builder = new ElasticsearchRestClientBuilder()
+            .withHttpHost(HedgingTransportTest.hostOf(nodes.get(2)))
+            .withSniffing(Duration.ofMinutes(5));
+
+        try (RestClient restClient = builder.build()) {
+            Sniffer sniffer = builder.buildSniffer(restClient);
+            try {
+                // when
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (restClient.getNodes().size() != 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+
+                // then
+                Assertions.assertEquals(
+                    Set.of("http://127.0.0.1:" + nodes.get(0).getAddress().getPort(), "http://127.0.0.1:" + nodes.get(1).getAddress().getPort()),
+                    restClient.getNodes().stream().map(node -> node.getHost().toURI()).collect(Collectors.toSet()));
+            } finally {
+                sniffer.close();
+            }
+        }
+        Assertions.assertEquals(ElasticsearchNodesSniffer.Scheme.HTTPS, new ElasticsearchRestClientBuilder()
+            .withHttpHosts(new HttpHost("es1", 9200, "https"), new HttpHost("es2", 9200, "https"))
+            .scheme());
+        Assertions.assertThrows(IllegalStateException.class, () -> new ElasticsearchRestClientBuilder()
+            .withHttpHosts(new HttpHost("es1", 9200, "https"), new HttpHost("es2", 9200, "http"))
+            .scheme());
+    }
+
+    @Test
+    void cannotBuildSnifferWithoutSniffingEnabled() throws IOException {
+        var builder = new ElasticsearchRestClientBuilder().withHttpHost("localhost");
+        try (RestClient restClient = builder.build()) {
+            Assertions.assertThrows(IllegalStateException.class, () -> builder.buildSniffer(restClient));
+        }
+    }
+
+    @Test
+    void cannotBuildSniffingClientTwice() throws IOException {
+        var builder = new ElasticsearchRestClientBuilder().withHttpHost("localhost").withSniffing(Duration.ofMinutes(5));
+        RestClient restClient = builder.build();
+        try {
+            Assertions.assertThrows(IllegalStateException.class, builder::build);
+        } finally {
+            restClient.close();
+        }
+    }
+
+    private static String nodeInfo(HttpServer node) {
+        String address = "127.0.0.1:" + node.getAddress().getPort();
+        return """
+            "node-%d": {"name": "node-%d", "version": "8.15.0", "roles": ["data"], "http": {"publish_address": "%s", "bound_address": ["%s"]}}"""
+            .formatted(node.getAddress().getPort(), node.getAddress().getPort(), address, address);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
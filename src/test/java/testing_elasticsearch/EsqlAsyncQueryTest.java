@@ -0,0 +1,185 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import testing_elasticsearch.BookSearcher.MostPublished;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EsqlAsyncQueryTest {
+
+    static final String AUTHORS = """
+        "columns": [
+          {"name": "first_published", "type": "integer"}, {"name": "last_published", "type": "integer"},
+          {"name": "times", "type": "long"}, {"name": "author", "type": "keyword"}
+        ],
+        "values": [%s]""";
+
+    static final EsqlAsyncQuery.Polling POLLING = EsqlAsyncQuery.Polling.DEFAULT
+        .withInitialBackoff(Duration.ofMillis(10))
+        .withMaxBackoff(Duration.ofMillis(20));
+
+    HttpServer elasticsearch;
+    RestClientTransport transport;
+    List<String> requests;
+    AtomicInteger polls;
+    int pollsUntilDone;
+    volatile boolean failPolls;
+    CountDownLatch deleted;
+
+    @BeforeEach
+    void startFakeElasticsearch() throws IOException {
+        requests = new CopyOnWriteArrayList<>();
+        polls = new AtomicInteger();
+        deleted = new CountDownLatch(1);
+        elasticsearch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        elasticsearch.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        elasticsearch.createContext("/_query", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + body);
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/_query")) {
+                respond(exchange, AsyncBookSearcherTest.VERSION_8_15);
+            } else if (path.equals("/_query/async")) {
+                respond(exchange, """
+                    {"id": "FmNJRUZ1", "is_running": true}""");
+            } else if (exchange.getRequestMethod().equals("DELETE")) {
+                deleted.countDown();
+                respond(exchange, """
+                    {"acknowledged": true}""");
+            } else if (failPolls) {
+                polls.incrementAndGet();
+                respond(exchange, 503, """
+                    {"error": {"type": "node_not_connected_exception", "reason": "gone"}, "status": 503}""");
+            } else if (polls.incrementAndGet() < pollsUntilDone) {
+                respond(exchange, """
+                    {"id": "FmNJRUZ1", "is_running": true, %s}""".formatted(AUTHORS.formatted("""
+                    [1990, 2000, 3, "Partial"]""")));
+            } else {
+                respond(exchange, """
+                    {"id": "FmNJRUZ1", "is_running": false, %s}""".formatted(AUTHORS.formatted("""
+                    [1950, 2000, 12, "First"], [1990, 2000, 3, "Second"]""")));
+            }
+        });
+        elasticsearch.start();
+        var restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHosts(HedgingTransportTest.hostOf(elasticsearch))
+            .build();
+        transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
+    }
+
+    @AfterEach
+    void stopFakeElasticsearch() throws IOException {
+        transport.close();
+        elasticsearch.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        respond(exchange, 200, json);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Test
+    void shouldPollUntilDone() throws Exception {
+        // given
+        pollsUntilDone = 3;
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO), metrics);
+
+        // when
+        var query = systemUnderTest.mostPublishedAuthorsInYearsAsync(1900, 2000, POLLING);
+        List<MostPublished> mostPublished = query.await(Duration.ofSeconds(10));
+
+        // then
+        Assertions.assertEquals(List.of(
+            new MostPublished("First", 1950, 2000, 12),
+            new MostPublished("Second", 1990, 2000, 3)), mostPublished);
+        Assertions.assertEquals("FmNJRUZ1", query.id());
+        Assertions.assertFalse(query.isRunning());
+        Assertions.assertEquals(3, polls.get());
+        Assertions.assertEquals(2, metrics.query(BookSearcher.MOST_PUBLISHED_AUTHORS_ASYNC).rows.sum());
+        String submit = requests.stream().filter(r -> r.startsWith("POST /_query/async")).findFirst().orElseThrow();
+        Assertions.assertTrue(submit.contains("\"params\":[1900,2000],\"wait_for_completion_timeout\":\"1000ms\""), submit);
+        Assertions.assertTrue(requests.stream().anyMatch(r -> r.startsWith("GET /_query/async/FmNJRUZ1?")), requests::toString);
+        // it was kept on the cluster, done or not, until deleted
+        Assertions.assertTrue(deleted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldDeleteTheQueryWhenPollingFails() throws Exception {
+        // given
+        failPolls = true;
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO), metrics);
+
+        // when
+        var query = systemUnderTest.mostPublishedAuthorsInYearsAsync(1900, 2000, POLLING);
+
+        // then
+        Assertions.assertThrows(RuntimeException.class, () -> query.await(Duration.ofSeconds(10)));
+        Assertions.assertTrue(deleted.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, polls.get());
+        Assertions.assertEquals(1, metrics.query(BookSearcher.MOST_PUBLISHED_AUTHORS_ASYNC).failures.sum());
+    }
+
+    @Test
+    void shouldStreamOnlyTheFinalResult() throws Exception {
+        // given
+        pollsUntilDone = 2;
+        var systemUnderTest = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO));
+        List<MostPublished> streamed = new ArrayList<>();
+
+        // when
+        int authors = systemUnderTest.mostPublishedAuthorsInYearsAsync(1900, 2000, 10, streamed::add)
+            .await(Duration.ofSeconds(10));
+
+        // then
+        Assertions.assertEquals(2, authors);
+        Assertions.assertEquals(List.of("First", "Second"), streamed.stream().map(MostPublished::author).toList());
+    }
+
+    @Test
+    void shouldDeleteTheQueryWhenClosed() throws Exception {
+        // given
+        pollsUntilDone = Integer.MAX_VALUE;
+        var systemUnderTest = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO));
+        var query = systemUnderTest.mostPublishedAuthorsInYearsAsync(1900, 2000, POLLING);
+        Assertions.assertThrows(TimeoutException.class, () -> query.await(Duration.ofMillis(200)));
+
+        // when
+        query.close();
+
+        // then
+        Assertions.assertTrue(deleted.await(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(query.result().isCancelled());
+        Assertions.assertEquals(List.of(new MostPublished("Partial", 1990, 2000, 3)), query.partial().orElseThrow());
+    }
+}
@@ -0,0 +1,106 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+public class HedgingTransportTest {
+
+    HttpServer slow;
+    HttpServer fast;
+
+    @BeforeEach
+    void startFakeElasticsearchNodes() throws IOException {
+        slow = fakeElasticsearch(Duration.ofSeconds(3));
+        fast = fakeElasticsearch(Duration.ZERO);
+    }
+
+    @AfterEach
+    void stopFakeElasticsearchNodes() {
+        slow.stop(0);
+        fast.stop(0);
+    }
+
+    @Test
+    void shouldAnswerFromAnotherNodeWhenTheFirstIsSlow() throws IOException {
+        // given
+        HttpHost slowHost = hostOf(slow);
+        HttpHost fastHost = hostOf(fast);
+        // averages only the last response time, so the test can tell it which node looks fastest
+        var selector = new LatencyAwareNodeSelector(1.0, 2, Duration.ofMinutes(1));
+        var restClient = new ElasticsearchRestClientBuilder()
+            .withHttpHosts(slowHost, fastHost)
+            .withLatencyAwareNodeSelection(selector)
+            .build();
+        var policy = HedgingTransport.Policy.DEFAULT.withInitialDelay(Duration.ofMillis(200));
+
+        try (var transport = new HedgingTransport(restClient, new JacksonJsonpMapper(), selector, policy)) {
+            var searcher = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO));
+            // so that the first query goes to the slow node
+            selector.record(slowHost, Duration.ofMillis(1).toNanos());
+            selector.record(fastHost, Duration.ofMillis(5).toNanos());
+
+            // when
+            long started = System.nanoTime();
+            int published = searcher.numberOfBooksPublishedInYear(1999);
+            long tookMillis = Duration.ofNanos(System.nanoTime() - started).toMillis();
+
+            // then
+            Assertions.assertEquals(42, published);
+            Assertions.assertTrue(tookMillis < 2_000, "took " + tookMillis + "ms");
+            Assertions.assertEquals(1, transport.hedged());
+            Assertions.assertEquals(1, transport.hedgeWins());
+            Assertions.assertTrue(selector.averageNanos(slowHost) > selector.averageNanos(fastHost));
+
+            // and the slow node is avoided from now on
+            Assertions.assertEquals(42, searcher.numberOfBooksPublishedInYear(1999));
+            Assertions.assertEquals(1, transport.hedged());
+        }
+    }
+
+    static HttpServer fakeElasticsearch(Duration countDelay) throws IOException {
+        HttpServer elasticsearch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        elasticsearch.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        elasticsearch.createContext("/_query", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            boolean version = body.contains("show info");
+            if (!version) {
+                try {
+                    Thread.sleep(countDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] response = (version
+                ? AsyncBookSearcherTest.VERSION_8_15
+                : """
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            } catch (IOException e) {
+                // the client gave up on it
+            }
+        });
+        elasticsearch.start();
+        return elasticsearch;
+    }
+
+    static HttpHost hostOf(HttpServer server) {
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+}
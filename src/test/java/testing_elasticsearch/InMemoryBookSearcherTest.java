@@ -0,0 +1,117 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class InMemoryBookSearcherTest {
+
+    @Test
+    void shouldLoadFromTheIngestedCsvSkippingMalformedRows() throws IOException {
+        // given
+        String csv = """
+            title;description;author;year;publisher;ratings
+            ignored;first data row;is skipped;0;when ingesting;0
+            Peter Rabbit;A rabbit;Beatrix Potter;1902;Warne;4.5
+            Squirrel Nutkin;A squirrel;Beatrix Potter;1903;Warne;4.0
+            Broken;A broken row;Nobody;nineteen;Nowhere;1.0
+            Benjamin Bunny;Another rabbit;Beatrix Potter;1904;Warne;4.2
+            Emma;A match maker;Jane Austen;1815;Murray;4.1
+            """;
+        CsvMapper csvMapper = new CsvMapper();
+        CsvSchema schema = csvMapper.typedSchemaFor(Book.class).withHeader().withColumnSeparator(';').withSkipFirstDataRow(true);
+        MappingIterator<Book> books = csvMapper.readerFor(Book.class).with(schema).readValues(new StringReader(csv));
+
+        // when
+        var store = BookStore.load(books);
+        var systemUnderTest = new InMemoryBookSearcher(store, new QueryMetrics());
+
+        // then
+        Assertions.assertEquals(4, store.size());
+        Assertions.assertEquals(2, store.authors());
+        Assertions.assertEquals(1, systemUnderTest.numberOfBooksPublishedInYear(1903));
+        Assertions.assertEquals(
+            List.of(
+                new BookSearcher.MostPublished("Beatrix Potter", 1902, 1904, 3),
+                new BookSearcher.MostPublished("Jane Austen", 1815, 1815, 1)),
+            systemUnderTest.mostPublishedAuthorsInYears(1800, 2010));
+    }
+
+    @Test
+    void shouldAnswerAsyncQueriesWithCompletedHandles() throws Exception {
+        // given
+        var builder = new BookStore.Builder()
+            .add(new Book("Peter Rabbit", "A rabbit", "Beatrix Potter", 1902, "Warne", 4.5f))
+            .add(new Book("Benjamin Bunny", "Another rabbit", "Beatrix Potter", 1904, "Warne", 4.2f))
+            .add(new Book("Emma", "A match maker", "Jane Austen", 1815, "Murray", 4.1f));
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new InMemoryBookSearcher(builder.build(), metrics);
+        List<BookSearcher.MostPublished> streamed = new ArrayList<>();
+
+        // when
+        var mostPublished = systemUnderTest.mostPublishedAuthorsInYearsAsync(1800, 2010);
+        var authors = systemUnderTest.mostPublishedAuthorsInYearsAsync(1800, 2010, 1, streamed::add);
+
+        // then
+        Assertions.assertFalse(mostPublished.isRunning());
+        Assertions.assertEquals(
+            List.of(
+                new BookSearcher.MostPublished("Beatrix Potter", 1902, 1904, 2),
+                new BookSearcher.MostPublished("Jane Austen", 1815, 1815, 1)),
+            mostPublished.await(Duration.ZERO));
+        Assertions.assertEquals(1, authors.await(Duration.ZERO));
+        Assertions.assertEquals(List.of(new BookSearcher.MostPublished("Beatrix Potter", 1902, 1904, 2)), streamed);
+        Assertions.assertEquals(2, metrics.query(BookSearcher.MOST_PUBLISHED_AUTHORS_ASYNC).request.count());
+    }
+
+    @Test
+    void shouldGiveSameAnswersAsScanningEveryBook() {
+        // given enough books for the scans to be split
+        Random random = new Random(42);
+        List<Book> books = new ArrayList<>();
+        var builder = new BookStore.Builder();
+        for (int i = 0; i < 10 * BookStore.SCAN_THRESHOLD; i++) {
+            Book book = new Book("title", "description", "author " + random.nextInt(500), 1700 + random.nextInt(320), "publisher", 3);
+            books.add(book);
+            builder.add(book);
+        }
+        var systemUnderTest = new InMemoryBookSearcher(builder.build(), new QueryMetrics());
+
+        // when
+        var histogram = systemUnderTest.numberOfBooksPublishedInYears(1800, 2010);
+        var mostPublished = systemUnderTest.mostPublishedAuthorsInYears(1800, 2010);
+
+        // then
+        for (int year = 1800; year <= 2010; year++) {
+            int published = year;
+            Assertions.assertEquals(books.stream().filter(book -> book.year() == published).count(), histogram.count(year));
+            Assertions.assertEquals(histogram.count(year), systemUnderTest.numberOfBooksPublishedInYear(year));
+        }
+        Assertions.assertEquals(20, mostPublished.size());
+        for (BookSearcher.MostPublished published : mostPublished) {
+            List<Integer> years = books.stream()
+                .filter(book -> book.author().equals(published.author()) && book.year() >= 1800 && book.year() <= 2010)
+                .map(Book::year)
+                .toList();
+            Assertions.assertEquals(new BookSearcher.MostPublished(
+                published.author(),
+                years.stream().mapToInt(Integer::intValue).min().orElseThrow(),
+                years.stream().mapToInt(Integer::intValue).max().orElseThrow(),
+                years.size()), published);
+        }
+        for (int i = 1; i < mostPublished.size(); i++) {
+            var previous = mostPublished.get(i - 1);
+            var current = mostPublished.get(i);
+            Assertions.assertTrue(previous.lastPublished() - previous.firstPublished() >= current.lastPublished() - current.firstPublished());
+        }
+    }
+}
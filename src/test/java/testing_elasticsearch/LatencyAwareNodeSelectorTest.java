@@ -0,0 +1,113 @@
+package testing_elasticsearch;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class LatencyAwareNodeSelectorTest {
+
+    static final HttpHost FAST = new HttpHost("fast", 9200);
+    static final HttpHost ALSO_FAST = new HttpHost("also-fast", 9200);
+    static final HttpHost SLOW = new HttpHost("slow", 9200);
+
+    @Test
+    void shouldLeaveOutNodesMuchSlowerThanTheFastest() {
+        // given
+        var systemUnderTest = new LatencyAwareNodeSelector();
+        systemUnderTest.record(FAST, millis(10));
+        systemUnderTest.record(ALSO_FAST, millis(15));
+        systemUnderTest.record(SLOW, millis(200));
+
+        // when
+        List<Node> nodes = nodes(FAST, ALSO_FAST, SLOW);
+        systemUnderTest.select(nodes);
+
+        // then
+        Assertions.assertEquals(List.of(FAST, ALSO_FAST), nodes.stream().map(Node::getHost).toList());
+    }
+
+    @Test
+    void shouldAverageResponseTimes() {
+        // given
+        var systemUnderTest = new LatencyAwareNodeSelector(0.5, 2, Duration.ofSeconds(5));
+
+        // when
+        systemUnderTest.record(SLOW, millis(200));
+        systemUnderTest.record(SLOW, millis(10));
+        systemUnderTest.record(SLOW, millis(10));
+
+        // then
+        Assertions.assertEquals(millis(57.5), systemUnderTest.averageNanos(SLOW));
+        Assertions.assertTrue(Double.isNaN(systemUnderTest.averageNanos(FAST)));
+    }
+
+    @Test
+    void shouldProbeNodesWithoutRecentResponses() throws InterruptedException {
+        // given
+        var systemUnderTest = new LatencyAwareNodeSelector(0.2, 2, Duration.ofMillis(20));
+        systemUnderTest.record(SLOW, millis(200));
+        Thread.sleep(30);
+        systemUnderTest.record(FAST, millis(10));
+
+        // when
+        List<Node> nodes = nodes(FAST, SLOW);
+        systemUnderTest.select(nodes);
+        List<Node> nodesUntilProbed = nodes(FAST, SLOW);
+        systemUnderTest.select(nodesUntilProbed);
+
+        // then
+        Assertions.assertEquals(2, nodes.size());
+        // one probe is enough, the slow node doesn't get its full share back before it responded
+        Assertions.assertEquals(List.of(FAST), nodesUntilProbed.stream().map(Node::getHost).toList());
+    }
+
+    @Test
+    void shouldOnlyTimeQueries() {
+        Assertions.assertTrue(LatencyAwareNodeSelector.isQuery("/_query?format=json"));
+        Assertions.assertTrue(LatencyAwareNodeSelector.isQuery("/books/_search"));
+        Assertions.assertFalse(LatencyAwareNodeSelector.isQuery("/_bulk"));
+        Assertions.assertFalse(LatencyAwareNodeSelector.isQuery("/_query/async/FmNJRUZ1?wait_for_completion_timeout=1s"));
+        Assertions.assertFalse(LatencyAwareNodeSelector.isQuery("/books/_refresh"));
+    }
+
+    @Test
+    void shouldPickOneNodeOtherThanTheAvoidedOneWhenHedging() {
+        // given
+        var systemUnderTest = new LatencyAwareNodeSelector();
+        systemUnderTest.record(FAST, millis(10));
+        systemUnderTest.record(ALSO_FAST, millis(15));
+        systemUnderTest.record(SLOW, millis(200));
+        var selection = new LatencyAwareNodeSelector.Selection(Set.of(FAST));
+
+        // when
+        List<Node> nodes = nodes(SLOW, FAST, ALSO_FAST);
+        LatencyAwareNodeSelector.SELECTION.set(selection);
+        try {
+            systemUnderTest.select(nodes);
+        } finally {
+            LatencyAwareNodeSelector.SELECTION.remove();
+        }
+
+        // then
+        Assertions.assertEquals(List.of(ALSO_FAST), nodes.stream().map(Node::getHost).toList());
+        Assertions.assertEquals(ALSO_FAST, selection.chosen);
+    }
+
+    static List<Node> nodes(HttpHost... hosts) {
+        List<Node> nodes = new ArrayList<>();
+        for (HttpHost host : hosts) {
+            nodes.add(new Node(host));
+        }
+        return nodes;
+    }
+
+    static long millis(double millis) {
+        return (long) (millis * 1_000_000);
+    }
+}
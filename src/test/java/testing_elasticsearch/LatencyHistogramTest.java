@@ -0,0 +1,43 @@
+package testing_elasticsearch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void shouldGivePercentilesWithinRelativeError() {
+        // given
+        var histogram = new LatencyHistogram();
+
+        // when
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1_000);
+        }
+
+        // then
+        Assertions.assertEquals(10_000, histogram.count());
+        Assertions.assertEquals(5_000_000, histogram.percentile(50), 5_000_000 * 0.016);
+        Assertions.assertEquals(9_900_000, histogram.percentile(99), 9_900_000 * 0.016);
+        Assertions.assertEquals(9_990_000, histogram.percentile(99.9), 9_990_000 * 0.016);
+        Assertions.assertEquals(10_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    void shouldMapEveryValueToBucketCoveringIt() {
+        for (long value : new long[]{0, 1, 127, 128, 129, 1_000, 123_456_789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assertions.assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value, "upper bound of " + value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.highestEquivalentValue(index - 1) < value, "lower bound of " + value);
+        }
+    }
+
+    @Test
+    void shouldBeEmptyAfterReset() {
+        var histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.count());
+        Assertions.assertEquals(0, histogram.percentile(99));
+    }
+}
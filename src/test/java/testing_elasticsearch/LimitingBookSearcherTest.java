@@ -0,0 +1,108 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.esql.jdbc.ResultSetEsqlAdapter;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.TransportException;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class LimitingBookSearcherTest {
+
+    ElasticsearchClient esClient;
+    ElasticsearchTransport transport;
+
+    @BeforeEach
+    void setUpMocks() throws SQLException, IOException {
+        esClient = mock(ElasticsearchClient.class);
+        ElasticsearchEsqlClient esql = mock(ElasticsearchEsqlClient.class);
+        transport = mock(ElasticsearchTransport.class);
+        ResultSet versionResultSet = mock(ResultSet.class);
+
+        when(esClient.esql()).thenReturn(esql);
+        when(esClient._transport()).thenReturn(transport);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        when(esql.query(eq(ResultSetEsqlAdapter.INSTANCE), eq(BookSearcher.VERSION_QUERY))).thenReturn(versionResultSet);
+        when(versionResultSet.next()).thenReturn(true);
+        when(versionResultSet.getInt(1)).thenReturn(8);
+        when(versionResultSet.getInt(2)).thenReturn(15);
+    }
+
+    @Test
+    void shouldShrinkTheLimitWhenThrottled() throws IOException {
+        // given
+        TransportHttpClient.Response tooManyRequests = mock(TransportHttpClient.Response.class);
+        when(tooManyRequests.statusCode()).thenReturn(429);
+        var throttled = new TransportException(tooManyRequests, "Too Many Requests", "es/esql.query");
+        when(transport.performRequest(any(), any(), any())).thenThrow(throttled);
+        var limiter = new AdaptiveConcurrencyLimiter().withInitialLimit(10).withBackoffRatio(0.5);
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new LimitingBookSearcher(esClient, new BackendVersionCache(Duration.ZERO), metrics, limiter, Duration.ofSeconds(1));
+
+        // when
+        Assertions.assertThrows(RuntimeException.class, () -> systemUnderTest.numberOfBooksPublishedInYear(1999));
+
+        // then
+        Assertions.assertEquals(5, limiter.limit());
+        Assertions.assertEquals(0, limiter.inFlight());
+        Assertions.assertEquals(1, metrics.query(BookSearcher.BOOKS_PUBLISHED_IN_YEAR).queueWait.count());
+        Assertions.assertEquals(1, metrics.query(BookSearcher.BOOKS_PUBLISHED_IN_YEAR).failures.sum());
+    }
+
+    @Test
+    void shouldLimitQueriesOfWrappedPartitionedSearcher() throws IOException {
+        // given
+        when(transport.performRequest(any(), any(), any())).thenReturn(YearHistogramTest.response("""
+            {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}"""));
+        var partitions = new BookPartitions();
+        partitions.add(1999);
+        var limiter = new AdaptiveConcurrencyLimiter().withInitialLimit(10);
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new LimitingBookSearcher(
+            new BookSearcher(esClient, new BackendVersionCache(Duration.ZERO), metrics, partitions), limiter, Duration.ofSeconds(1));
+
+        // when
+        int published = systemUnderTest.numberOfBooksPublishedInYear(1999);
+        int notPartitioned = systemUnderTest.numberOfBooksPublishedInYear(1975);
+
+        // then
+        Assertions.assertEquals(42, published);
+        Assertions.assertEquals(0, notPartitioned);
+        Assertions.assertEquals(0, limiter.inFlight());
+        Assertions.assertEquals(2, metrics.query(BookSearcher.BOOKS_PUBLISHED_IN_YEAR).queueWait.count());
+        Assertions.assertSame(partitions, systemUnderTest.partitions());
+    }
+
+    @Test
+    void shouldShedWithoutSending() throws IOException, InterruptedException {
+        // given
+        var limiter = new AdaptiveConcurrencyLimiter().withInitialLimit(1).withMaxQueued(0);
+        var metrics = new QueryMetrics();
+        var systemUnderTest = new LimitingBookSearcher(esClient, new BackendVersionCache(Duration.ZERO), metrics, limiter, Duration.ofSeconds(1));
+        limiter.acquire("someone else", System.nanoTime() + Duration.ofMinutes(1).toNanos());
+
+        // when
+        Assertions.assertThrows(RejectedExecutionException.class,
+            () -> systemUnderTest.mostPublishedAuthorsInYears(1900, 2000));
+
+        // then
+        Assertions.assertEquals(1, metrics.query(BookSearcher.MOST_PUBLISHED_AUTHORS).shed.sum());
+        verifyNoInteractions(transport);
+    }
+}
@@ -0,0 +1,81 @@
+package testing_elasticsearch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class LoadGeneratorTest {
+
+    @Test
+    void shouldKeepTheRateWhenOperationsAreSlow() throws InterruptedException {
+        // given
+        var systemUnderTest = new LoadGenerator()
+            .withRate(100)
+            .withDuration(Duration.ofSeconds(1))
+            .withWarmUp(Duration.ZERO)
+            .withOperation("slow", 1, () -> sleep(Duration.ofMillis(50)));
+
+        // when
+        LoadGenerator.Report report = systemUnderTest.run();
+
+        // then
+        // a closed loop with one caller would get through 20 of them
+        LoadGenerator.OperationReport slow = report.operations().get("slow");
+        Assertions.assertEquals(100, slow.completed());
+        Assertions.assertTrue(slow.throughput() > 50, report::toString);
+        Assertions.assertTrue(slow.latency().percentile(50) >= Duration.ofMillis(50).toNanos(), report::toString);
+        Assertions.assertTrue(report.sustained(), report::toString);
+    }
+
+    @Test
+    void shouldRunTheMixInProportion() throws InterruptedException {
+        // given
+        var systemUnderTest = new LoadGenerator()
+            .withRate(1000)
+            .withDuration(Duration.ofSeconds(1))
+            .withWarmUp(Duration.ZERO)
+            .withOperation("often", 3, () -> {
+            })
+            .withOperation("seldom", 1, 10, () -> {
+            });
+
+        // when
+        LoadGenerator.Report report = systemUnderTest.run();
+
+        // then
+        long often = report.operations().get("often").completed();
+        long seldom = report.operations().get("seldom").completed();
+        Assertions.assertEquals(1000, often + seldom);
+        Assertions.assertTrue(often > 2 * seldom && often < 4 * seldom, report::toString);
+        // every seldom operation is 10 units of work
+        Assertions.assertTrue(report.operations().get("seldom").throughput() > 5 * seldom, report::toString);
+    }
+
+    @Test
+    void shouldDropAndReportNotSustainedBeyondMaxInFlight() throws InterruptedException {
+        // given
+        var systemUnderTest = new LoadGenerator()
+            .withRate(100)
+            .withDuration(Duration.ofMillis(500))
+            .withWarmUp(Duration.ZERO)
+            .withMaxInFlight(1)
+            .withOperation("slow", 1, () -> sleep(Duration.ofMillis(100)));
+
+        // when
+        LoadGenerator.Report report = systemUnderTest.run();
+
+        // then
+        Assertions.assertTrue(report.operations().get("slow").dropped() > 0, report::toString);
+        Assertions.assertFalse(report.sustained());
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.esql.ElasticsearchEsqlClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.util.BinaryData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PreparedEsqlQueryTest {
+
+    @Test
+    void shouldEncodeTheSameBodyAsTheMapper() throws Exception {
+        // given
+        var systemUnderTest = new PreparedEsqlQuery(BookSearcher.MOST_PUBLISHED_AUTHORS_QUERY);
+
+        // when
+        var body = new ObjectMapper().readValue(systemUnderTest.body(-2147483648, 2147483647), Map.class);
+
+        // then
+        Assertions.assertEquals(
+            Map.of("query", BookSearcher.MOST_PUBLISHED_AUTHORS_QUERY, "params", List.of(-2147483648, 2147483647)),
+            body);
+    }
+
+    @Test
+    void shouldWriteEveryIntWithoutStrings() {
+        for (int value : new int[]{0, 7, -7, 10, 99, 1000, 1999, -100000, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            byte[] buffer = new byte[12];
+            int length = PreparedEsqlQuery.writeInt(buffer, 1, value);
+            Assertions.assertEquals(Integer.toString(value), new String(buffer, 1, length - 1, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void shouldReuseBuffersWithoutMixingUpParameters() throws Exception {
+        // given
+        var esClient = mock(ElasticsearchClient.class);
+        var esql = mock(ElasticsearchEsqlClient.class);
+        var transport = mock(ElasticsearchTransport.class);
+        when(esClient.esql()).thenReturn(esql);
+        when(esClient._transport()).thenReturn(transport);
+        when(esql._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        List<String> sent = new ArrayList<>();
+        when(transport.performRequest(any(), any(), any())).thenAnswer(invocation -> {
+            sent.add(StandardCharsets.UTF_8.decode(invocation.<BinaryData>getArgument(0).asByteBuffer()).toString());
+            return YearHistogramTest.response("""
+                {"columns": [{"name": "year", "type": "integer"}, {"name": "published", "type": "long"}], "values": []}""");
+        });
+        var systemUnderTest = new PreparedEsqlQuery(BookSearcher.BOOKS_PUBLISHED_IN_YEARS_QUERY.formatted(100));
+
+        // when
+        systemUnderTest.query(esClient, new YearHistogram.Adapter(1000, 1999), 1000, 1999);
+        systemUnderTest.query(esClient, new YearHistogram.Adapter(1, 2), 1, 2);
+
+        // then
+        Assertions.assertEquals(new String(systemUnderTest.body(1000, 1999), StandardCharsets.UTF_8), sent.get(0));
+        Assertions.assertEquals(new String(systemUnderTest.body(1, 2), StandardCharsets.UTF_8), sent.get(1));
+    }
+}
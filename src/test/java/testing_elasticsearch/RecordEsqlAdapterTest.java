@@ -0,0 +1,81 @@
+package testing_elasticsearch;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import testing_elasticsearch.BookSearcher.MostPublished;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RecordEsqlAdapterTest {
+
+    @Test
+    void shouldPassEveryRowToConsumerInOrder() throws IOException {
+        // given
+        List<MostPublished> consumed = new ArrayList<>();
+
+        // when
+        int rows = new RecordEsqlAdapter<>(MostPublished.class, consumed::add).deserialize(null, null, YearHistogramTest.response("""
+            {
+              "columns": [
+                {"name": "first_published", "type": "integer"}, {"name": "last_published", "type": "integer"},
+                {"name": "times", "type": "long"}, {"name": "author", "type": "keyword"}
+              ],
+              "values": [[1902, 1930, 23, "Beatrix Potter"], [1950, 1960, 2, "Somebody Else"]]
+            }"""));
+
+        // then
+        Assertions.assertEquals(2, rows);
+        Assertions.assertEquals(List.of(
+            new MostPublished("Beatrix Potter", 1902, 1930, 23),
+            new MostPublished("Somebody Else", 1950, 1960, 2)
+        ), consumed);
+    }
+
+    @Test
+    void shouldDecodeEveryKindOfComponentWhereverItsColumnIs() throws IOException {
+        // given
+        List<Everything> consumed = new ArrayList<>();
+
+        // when
+        int rows = new RecordEsqlAdapter<>(Everything.class, consumed::add).deserialize(null, null, YearHistogramTest.response("""
+            {
+              "columns": [
+                {"name": "unused", "type": "keyword"}, {"name": "flag", "type": "boolean"},
+                {"name": "ratio", "type": "double"}, {"name": "big", "type": "long"}, {"name": "fraction", "type": "double"},
+                {"name": "small", "type": "integer"}, {"name": "name", "type": "keyword"}, {"name": "major", "type": "keyword"}
+              ],
+              "values": [
+                ["x", true, 0.5, 12345678901, 0.25, 7, "seven", "8"],
+                [{"ignored": [1, 2]}, null, null, null, null, null, null, null]
+              ]
+            }"""));
+
+        // then
+        Assertions.assertEquals(2, rows);
+        Assertions.assertEquals(List.of(
+            new Everything("seven", 7, 12345678901L, 0.5, 0.25f, true, (short) 8),
+            new Everything(null, 0, 0, 0, 0, false, (short) 0)
+        ), consumed);
+    }
+
+    @Test
+    void shouldFailWhenAColumnIsMissing() {
+        Assertions.assertThrows(IOException.class, () -> new RecordEsqlAdapter<>(MostPublished.class, published -> { })
+            .deserialize(null, null, YearHistogramTest.response("""
+                {"columns": [{"name": "author", "type": "keyword"}], "values": [["Beatrix Potter"]]}""")));
+    }
+
+    record Everything(
+        String name,
+        int small,
+        long big,
+        double ratio,
+        float fraction,
+        boolean flag,
+        @JsonProperty("major") short version
+    ) {
+    }
+}
@@ -0,0 +1,107 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class RecordReplayTransportTest {
+
+    static final JacksonJsonpMapper JSONP_MAPPER = new JacksonJsonpMapper();
+
+    @TempDir
+    Path recordings;
+
+    HttpServer elasticsearch;
+
+    // a stand-in for Elasticsearch which knows only the two queries we need
+    @BeforeEach
+    void startFakeElasticsearch() throws IOException {
+        elasticsearch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        elasticsearch.createContext("/_query", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] response = (body.contains("show info")
+                ? AsyncBookSearcherTest.VERSION_8_15
+                : """
+                {"columns": [{"name": "published", "type": "long"}], "values": [[42]]}""").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        elasticsearch.start();
+
+        try (var transport = RecordReplayTransport.recording(
+            new ElasticsearchRestClientBuilder()
+                .withHttpHost(new HttpHost("localhost", elasticsearch.getAddress().getPort(), "http"))
+                .build(),
+            JSONP_MAPPER,
+            recordings)) {
+            var searcher = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO));
+            Assertions.assertEquals(42, searcher.numberOfBooksPublishedInYear(1999));
+        }
+    }
+
+    @AfterEach
+    void stopFakeElasticsearch() {
+        elasticsearch.stop(0);
+    }
+
+    @Test
+    void shouldReplayRecordedResponsesWithoutNetwork() throws IOException {
+        // given
+        elasticsearch.stop(0);
+
+        try (var transport = RecordReplayTransport.replaying(recordings, JSONP_MAPPER, RecordReplayTransport.Faults.NONE
+            .withLatency(RecordReplayTransport.LatencyDistribution.fixed(Duration.ofMillis(20))))) {
+            var metrics = new QueryMetrics();
+            var searcher = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO), metrics);
+
+            // when
+            long started = System.nanoTime();
+            int published = searcher.numberOfBooksPublishedInYear(1999);
+
+            // then
+            Assertions.assertEquals(42, published);
+            Assertions.assertTrue(System.nanoTime() - started >= Duration.ofMillis(20).toNanos());
+            var stats = metrics.query(BookSearcher.BOOKS_PUBLISHED_IN_YEAR);
+            Assertions.assertEquals(1, stats.request.count());
+            Assertions.assertTrue(stats.request.percentile(50) >= Duration.ofMillis(20).toNanos());
+            Assertions.assertEquals(1, stats.rows.sum());
+        }
+    }
+
+    @Test
+    void shouldRejectWhenThrottled() throws IOException {
+        try (var transport = RecordReplayTransport.replaying(recordings, JSONP_MAPPER, RecordReplayTransport.Faults.NONE.withThrottleRate(1))) {
+            var client = new ElasticsearchClient(transport);
+
+            var thrown = Assertions.assertThrows(ElasticsearchException.class, () -> new BookSearcher(client, new BackendVersionCache(Duration.ZERO)));
+            Assertions.assertEquals(429, thrown.status());
+        }
+    }
+
+    @Test
+    void shouldFailForRequestsNeverRecorded() throws IOException {
+        try (var transport = RecordReplayTransport.replaying(recordings, JSONP_MAPPER, RecordReplayTransport.Faults.NONE)) {
+            var searcher = new BookSearcher(new ElasticsearchClient(transport), new BackendVersionCache(Duration.ZERO));
+
+            Assertions.assertThrows(RuntimeException.class, () -> searcher.numberOfBooksPublishedInYear(1410));
+        }
+    }
+}
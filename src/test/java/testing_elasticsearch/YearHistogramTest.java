@@ -0,0 +1,98 @@
+package testing_elasticsearch;
+
+import co.elastic.clients.ApiClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.endpoints.BinaryResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.mockito.Mockito.mock;
+
+public class YearHistogramTest {
+
+    @Test
+    void shouldDecodeCountsByYearIntoHistogram() throws IOException {
+        // given
+        BinaryResponse response = response("""
+            {
+              "took": 12,
+              "columns": [{"name": "published", "type": "long"}, {"name": "year", "type": "integer"}],
+              "values": [[3, 1999], [7, 2001], [1, 1990]]
+            }""");
+
+        // when
+        YearHistogram histogram = new YearHistogram.Adapter(1990, 2001).deserialize(null, null, response);
+
+        // then
+        Assertions.assertEquals(1990, histogram.minYear());
+        Assertions.assertEquals(2001, histogram.maxYear());
+        Assertions.assertEquals(1, histogram.count(1990));
+        Assertions.assertEquals(3, histogram.count(1999));
+        Assertions.assertEquals(0, histogram.count(2000));
+        Assertions.assertEquals(7, histogram.count(2001));
+        Assertions.assertEquals(0, histogram.count(2020));
+        Assertions.assertEquals(11, histogram.total());
+        Assertions.assertEquals(12, histogram.toArray().length);
+    }
+
+    @Test
+    void shouldFailWhenColumnIsMissing() {
+        BinaryResponse response = response("""
+            {"columns": [{"name": "published", "type": "long"}], "values": [[3]]}""");
+
+        Assertions.assertThrows(
+            IOException.class,
+            () -> new YearHistogram.Adapter(1990, 2001).deserialize(null, null, response)
+        );
+    }
+
+    @Test
+    void shouldRejectRangesWiderThanTheQueryReturns() {
+        // given
+        var systemUnderTest = new BookSearcher(mock(ElasticsearchClient.class), new BackendVersionCache(Duration.ZERO) {
+            @Override
+            CompletableFuture<Version> version(ApiClient<?, ?> client, Supplier<CompletableFuture<Version>> probe) {
+                return CompletableFuture.completedFuture(new Version(8, 15));
+            }
+        });
+
+        // then
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> systemUnderTest.numberOfBooksPublishedInYears(0, BookSearcher.MAX_YEARS)
+        );
+    }
+
+    // a plain implementation rather than a mock, so it can be created while stubbing other mocks
+    static BinaryResponse response(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new BinaryResponse() {
+            @Override
+            public String contentType() {
+                return "application/json";
+            }
+
+            @Override
+            public long contentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public InputStream content() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}